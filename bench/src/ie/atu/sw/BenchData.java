@@ -0,0 +1,48 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/*
+ * Writes repeatable training CSVs for the benchmarks, in the same 202
+ * field layout the recorder produces: 200 horizon cells from a seeded
+ * cavern, the player position and an UP/DOWN action.
+ */
+final class BenchData {
+	private BenchData() {
+	}
+
+	static Path writeCsv(int rows, long seed) throws IOException {
+		var dir = Files.createTempDirectory("autopilot-bench");
+		var csv = dir.resolve("training_data.csv");
+		var sim = new Simulation(seed);
+		var random = new SplittableRandom(seed);
+
+		try (var out = new PrintWriter(Files.newBufferedWriter(csv))) {
+			var row = new StringBuilder();
+			for (int i = 0; i < rows; i++) {
+				sim.advance();
+				row.setLength(0);
+				for (double cell : sim.sampleHorizon()) {
+					row.append(cell).append(',');
+				}
+				row.append(random.nextInt(Simulation.MODEL_HEIGHT) / (double) Simulation.MODEL_HEIGHT);
+				row.append(',').append(random.nextBoolean() ? -1 : 1);
+				out.println(row);
+			}
+		}
+		return csv;
+	}
+
+	static void delete(Path csv) throws IOException {
+		try (var files = Files.list(csv.getParent())) {
+			for (var file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(csv.getParent());
+	}
+}
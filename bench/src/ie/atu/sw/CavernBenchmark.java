@@ -0,0 +1,151 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+import static ie.atu.sw.Simulation.MODEL_WIDTH;
+import static ie.atu.sw.Simulation.PLAYER_COLUMN;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The cost of a tick (generateNext()) and of sampling the grid, on the
+ * ring buffer in Simulation and on the LinkedList<byte[]> model it
+ * replaced. The old model is kept here, exactly as it was, purely as the
+ * baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CavernBenchmark {
+	private Simulation ring;
+	private LinkedListCavern legacy;
+
+	@Setup
+	public void setup() {
+		ring = new Simulation(42);
+		legacy = new LinkedListCavern(42);
+		for (int i = 0; i < MODEL_WIDTH; i++) { //Fill the grid with cavern
+			ring.advance();
+			legacy.generateNext();
+		}
+	}
+
+	@Benchmark
+	public void tickRingBuffer() {
+		ring.advance();
+	}
+
+	@Benchmark
+	public void tickLinkedList() {
+		legacy.generateNext();
+	}
+
+	@Benchmark
+	public double[] sampleRingBuffer() {
+		return ring.sample();
+	}
+
+	@Benchmark
+	public double[] sampleLinkedList() {
+		return legacy.sample();
+	}
+
+	@Benchmark
+	public double[] sampleHorizonRingBuffer() {
+		return ring.sampleHorizon();
+	}
+
+	@Benchmark
+	public double[] sampleHorizonLinkedList() {
+		return legacy.sampleHorizon();
+	}
+
+	@Benchmark
+	public double[] sampleSimplifiedHorizonRingBuffer() {
+		return ring.sampleSimplifiedHorizon();
+	}
+
+	@Benchmark
+	public double[] sampleSimplifiedHorizonLinkedList() {
+		return legacy.sampleSimplifiedHorizon();
+	}
+
+	//The cavern model as it was before the ring buffer
+	private static class LinkedListCavern {
+		private final LinkedList<byte[]> model = new LinkedList<>();
+		private final SplittableRandom random;
+		private int prevTop = 2;
+		private int prevBot = 18;
+
+		private LinkedListCavern(long seed) {
+			random = new SplittableRandom(seed);
+			for (int i = 0; i < MODEL_WIDTH; i++) {
+				model.add(new byte[MODEL_HEIGHT]);
+			}
+		}
+
+		private void generateNext() {
+			var next = model.pollFirst();
+			model.addLast(next);
+			Arrays.fill(next, (byte) 1);
+
+			var minspace = 4;
+			prevTop += random.nextBoolean() ? 1 : -1;
+			prevBot += random.nextBoolean() ? 1 : -1;
+			prevTop = max(2, min(prevTop, prevBot - minspace));
+			prevBot = min(18, max(prevBot, prevTop + minspace));
+
+			Arrays.fill(next, prevTop, prevBot, (byte) 0);
+		}
+
+		private double[] sample() {
+			var vector = new double[MODEL_WIDTH * MODEL_HEIGHT];
+			var index = 0;
+			for (byte[] bm : model) {
+				for (byte b : bm) {
+					vector[index] = b;
+					index++;
+				}
+			}
+			return vector;
+		}
+
+		private double[] sampleHorizon() {
+			return sampleColumnsAhead(10);
+		}
+
+		private double[] sampleSimplifiedHorizon() {
+			return sampleColumnsAhead(3);
+		}
+
+		private double[] sampleColumnsAhead(int horizonColumns) {
+			double[] vector = new double[horizonColumns * MODEL_HEIGHT];
+			int vectorIndex = 0;
+			for (int col = PLAYER_COLUMN + 1; col < Math.min(PLAYER_COLUMN + horizonColumns + 1, MODEL_WIDTH); col++) {
+				for (int row = 0; row < MODEL_HEIGHT; row++) {
+					vector[vectorIndex] = (double) model.get(col)[row];
+					vectorIndex++;
+				}
+			}
+			return vector;
+		}
+	}
+}
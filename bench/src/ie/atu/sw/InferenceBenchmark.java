@@ -0,0 +1,140 @@
+package ie.atu.sw;
+
+import java.util.concurrent.TimeUnit;
+
+import org.encog.ml.data.MLData;
+import org.encog.ml.data.basic.BasicMLData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The per-tick autopilot path: building the 61 value game state and
+ * running the 61-80-2 network over it, with Encog's own compute() as
+ * the baseline. The gaps benchmarks are the same for the 13 value
+ * InputEncoding.GAPS input and a 13-80-2 network.
+ *
+ * forwardPass and batchForwardPass compare the two allocation-free
+ * passes on one state; batchForwardPass64 runs 64 different states in
+ * one call (divide by 64 for the cost per state), against forwardPass64
+ * doing the same states one at a time. predict is batchForwardPass plus
+ * the controller's bookkeeping and sampled metrics, so the gap between
+ * them is what the instrumentation costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InferenceBenchmark {
+	private Simulation sim;
+	private NeuralNetworkController controller;
+	private NeuralNetworkController gapsController;
+	private double[] gameState;
+	private double[] gapFeatures;
+	private double[] output;
+	private ForwardPass forwardPass;
+	private BatchForwardPass batchForwardPass;
+	private double[] batchStates;
+	private double[] batchOutputs;
+
+	@Setup
+	public void setup() {
+		sim = new Simulation(42);
+		for (int i = 0; i < Simulation.MODEL_WIDTH; i++) {
+			sim.advance();
+		}
+		controller = new NeuralNetworkController();
+		controller.createNetwork(42);
+		gapsController = new NeuralNetworkController();
+		gapsController.createNetwork(42, InputEncoding.GAPS, 3, 80);
+		gameState = sim.createGameState();
+		gapFeatures = new double[InputEncoding.GAPS.inputSize(3)];
+		output = new double[2];
+
+		forwardPass = new ForwardPass(controller.getNetwork());
+		batchForwardPass = new BatchForwardPass(controller.getNetwork());
+		batchStates = new double[BATCH * gameState.length];
+		batchOutputs = new double[BATCH * 2];
+		var state = new double[gameState.length];
+		for (int i = 0; i < BATCH; i++) {
+			sim.advance();
+			System.arraycopy(sim.createGameState(state), 0, batchStates, i * state.length, state.length);
+		}
+	}
+
+	private static final int BATCH = 64;
+
+	@Benchmark
+	public double[] createGameState() {
+		return sim.createGameState();
+	}
+
+	@Benchmark
+	public double[] createGameStateInto() {
+		return sim.createGameState(gameState);
+	}
+
+	@Benchmark
+	public double[] createGapFeatures() {
+		return sim.createGapFeatures(gapFeatures, 3);
+	}
+
+	@Benchmark
+	public int predict() {
+		return controller.predict(gameState, output);
+	}
+
+	@Benchmark
+	public double[] forwardPass() {
+		forwardPass.compute(gameState, output);
+		return output;
+	}
+
+	@Benchmark
+	public double[] batchForwardPass() {
+		batchForwardPass.compute(gameState, output);
+		return output;
+	}
+
+	@Benchmark
+	public double[] forwardPass64() {
+		var state = gameState.clone();
+		for (int i = 0; i < BATCH; i++) {
+			System.arraycopy(batchStates, i * state.length, state, 0, state.length);
+			forwardPass.compute(state, output);
+			System.arraycopy(output, 0, batchOutputs, i * 2, 2);
+		}
+		return batchOutputs;
+	}
+
+	@Benchmark
+	public double[] batchForwardPass64() {
+		batchForwardPass.compute(batchStates, batchOutputs, BATCH);
+		return batchOutputs;
+	}
+
+	@Benchmark
+	public MLData encogCompute() {
+		return controller.getNetwork().compute(new BasicMLData(gameState));
+	}
+
+	//Everything the autopilot does in a tick, apart from moving the plane
+	@Benchmark
+	public int autopilotDecision() {
+		return controller.predict(sim.createGameState(gameState), output);
+	}
+
+	@Benchmark
+	public int autopilotDecisionGaps() {
+		return gapsController.decide(sim);
+	}
+}
@@ -0,0 +1,71 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.encog.neural.networks.training.propagation.resilient.ResilientPropagation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Loading the training CSV (parsing it, and reading it back from the
+ * binary cache) and one single-threaded RPROP epoch of the 61-80-2
+ * network, at several dataset sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainingBenchmark {
+	@Param({"1000", "10000", "100000"})
+	private int rows;
+
+	private Path csv;
+	private ResilientPropagation train;
+
+	@Setup
+	public void setup() throws IOException {
+		csv = BenchData.writeCsv(rows, 42);
+		var data = TrainingData.load(csv); //Also writes the cache for loadCache()
+
+		var controller = new NeuralNetworkController();
+		controller.createNetwork(42);
+		train = new ResilientPropagation(controller.getNetwork(), data.toDataSet());
+		train.setThreadCount(1);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		train.finishTraining();
+		BenchData.delete(csv);
+	}
+
+	@Benchmark
+	public TrainingData parseCsv() throws IOException {
+		return TrainingData.parseCsv(csv, TrainingData.DEFAULT_COLUMNS);
+	}
+
+	@Benchmark
+	public TrainingData loadCache() throws IOException {
+		return TrainingData.load(csv);
+	}
+
+	@Benchmark
+	public double rpropEpoch() {
+		train.iteration();
+		return train.getError();
+	}
+}
@@ -0,0 +1,203 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import org.encog.neural.networks.BasicNetwork;
+
+/*
+ * Scores an autopilot network by flying it through many seeded games at
+ * once, spread across a ForkJoinPool. Encog networks keep their working
+ * arrays inside the network, so every worker thread flies its own clone.
+ * The same base seed always produces the same set of caverns, so two
+ * networks can be compared on identical inputs.
+ *
+ * setDecisionCache() gives every worker a DecisionCache and, optionally,
+ * a DecisionTable that is built once and shared by all of them.
+ * 
+ * Usage: java ie.atu.sw.BatchEvaluator [games] [maxTicks] [threads] [seed] [cacheEntries] [table]
+ */
+public class BatchEvaluator {
+	private final BasicNetwork network;
+	private final Supplier<Pilot> pilots; //Or any other pilot, one per worker
+	private final int parallelism;
+	private int cacheEntries; //0 = no decision cache
+	private boolean precompile;
+
+	public BatchEvaluator(BasicNetwork network) {
+		this(network, Runtime.getRuntime().availableProcessors());
+	}
+
+	public BatchEvaluator(BasicNetwork network, int parallelism) {
+		this.network = network;
+		this.pilots = null;
+		this.parallelism = parallelism;
+	}
+
+	//Flies a pilot from pilots in every worker, e.g. QuantizedNetwork::toPilot. No decision cache.
+	public BatchEvaluator(Supplier<Pilot> pilots, int parallelism) {
+		this.network = null;
+		this.pilots = pilots;
+		this.parallelism = parallelism;
+	}
+
+	//Memoise each worker's decisions in a cache of maxEntries, and with precompile a shared table
+	public void setDecisionCache(int maxEntries, boolean precompile) {
+		this.cacheEntries = maxEntries;
+		this.precompile = precompile;
+	}
+
+	/*
+	 * Plays the games numbered 0 to games - 1, each seeded from baseSeed,
+	 * until the plane crashes or survives maxTicks.
+	 */
+	public Report evaluate(int games, long baseSeed, long maxTicks) throws Exception {
+		var survival = new long[games];
+		var crashRows = new int[games];
+
+		DecisionTable table = null;
+		if (network != null && cacheEntries > 0 && precompile) {
+			var controller = new NeuralNetworkController(network);
+			controller.enableDecisionCache(1);
+			table = controller.precompileDecisions();
+		}
+		var decisions = table;
+
+		//One reusable game and network clone per worker thread
+		var workers = ThreadLocal.withInitial(() -> pilots != null ? new Worker(pilots.get())
+				: new Worker((BasicNetwork) network.clone(), cacheEntries, decisions));
+
+		var pool = new ForkJoinPool(parallelism);
+		long start = System.nanoTime();
+		try {
+			pool.submit(() -> IntStream.range(0, games).parallel().forEach(i -> {
+				var worker = workers.get();
+				worker.sim.reset(baseSeed + i);
+				survival[i] = worker.sim.run(worker.pilot, maxTicks);
+				crashRows[i] = worker.sim.isCrashed() ? worker.sim.getPlayerRow() : Report.SURVIVED;
+			})).get();
+		} finally {
+			pool.shutdown();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		return new Report(survival, crashRows, elapsed);
+	}
+
+	private static class Worker {
+		private final Simulation sim = new Simulation(0);
+		private final Pilot pilot;
+
+		private Worker(BasicNetwork network, int cacheEntries, DecisionTable table) {
+			var controller = new NeuralNetworkController(network);
+			if (cacheEntries > 0) {
+				controller.enableDecisionCache(cacheEntries);
+				if (table != null) controller.setDecisionTable(table);
+			}
+			this.pilot = controller.toPilot();
+		}
+
+		private Worker(Pilot pilot) {
+			this.pilot = pilot;
+		}
+	}
+
+	/*
+	 * The outcome of a batch: survival percentiles, a histogram of the
+	 * rows the plane crashed in and the throughput of the run.
+	 */
+	public static class Report {
+		public static final int SURVIVED = Integer.MIN_VALUE;
+
+		private final long[] survival; //Sorted ascending
+		private final int[] crashHistogram = new int[MODEL_HEIGHT + 2]; //Off the top, rows 0-19, off the bottom
+		private final int survivors;
+		private final long totalTicks;
+		private final long elapsedNanos;
+
+		private Report(long[] survival, int[] crashRows, long elapsedNanos) {
+			this.survival = survival.clone();
+			Arrays.sort(this.survival);
+			this.totalTicks = Arrays.stream(survival).sum();
+			this.elapsedNanos = elapsedNanos;
+
+			int alive = 0;
+			for (int row : crashRows) {
+				if (row == SURVIVED) {
+					alive++;
+				} else {
+					crashHistogram[Math.max(-1, Math.min(row, MODEL_HEIGHT)) + 1]++;
+				}
+			}
+			this.survivors = alive;
+		}
+
+		//Nearest-rank percentile of the survival time in ticks, p in [0, 100]
+		public long percentile(double p) {
+			if (survival.length == 0) return 0;
+			int rank = (int) Math.ceil(p / 100.0 * survival.length);
+			return survival[Math.max(0, Math.min(rank - 1, survival.length - 1))];
+		}
+
+		//Number of crashes at the given row; -1 and MODEL_HEIGHT count flying off the grid
+		public int crashesAt(int row) {
+			return crashHistogram[row + 1];
+		}
+
+		public int getGames() {
+			return survival.length;
+		}
+
+		public int getSurvivors() {
+			return survivors;
+		}
+
+		public double getMeanSurvival() {
+			return survival.length == 0 ? 0 : (double) totalTicks / survival.length;
+		}
+
+		public double getGamesPerSecond() {
+			return survival.length / (elapsedNanos / 1e9);
+		}
+
+		public double getTicksPerSecond() {
+			return totalTicks / (elapsedNanos / 1e9);
+		}
+
+		public void print() {
+			System.out.println("Games: " + getGames() + ", survived to the tick limit: " + survivors);
+			System.out.println(String.format("Survival ticks: mean=%.1f min=%d p50=%d p90=%d p99=%d max=%d", 
+					getMeanSurvival(), percentile(0), percentile(50), percentile(90), percentile(99), percentile(100)));
+			System.out.println(String.format("Throughput: %.1f games/s, %.0f ticks/s", getGamesPerSecond(), getTicksPerSecond()));
+			System.out.println("Crash rows:");
+			for (int row = -1; row <= MODEL_HEIGHT; row++) {
+				int count = crashesAt(row);
+				if (count == 0) continue;
+				String label = row < 0 ? "top" : row == MODEL_HEIGHT ? "bottom" : String.valueOf(row);
+				System.out.println(String.format("  %6s: %d", label, count));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		long maxTicks = args.length > 1 ? Long.parseLong(args[1]) : 10_000;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		int cacheEntries = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+		boolean table = args.length > 5 && args[5].equals("table");
+
+		var neuralNetwork = new NeuralNetworkController();
+		if (!neuralNetwork.loadNetwork()) {
+			System.err.println("No trained network found - train one first");
+			return;
+		}
+		var evaluator = new BatchEvaluator(neuralNetwork.getNetwork(), threads);
+		evaluator.setDecisionCache(cacheEntries, table);
+		evaluator.evaluate(games, seed, maxTicks).print();
+	}
+}
@@ -0,0 +1,184 @@
+package ie.atu.sw;
+
+import org.encog.engine.network.activation.ActivationFunction;
+import org.encog.neural.flat.FlatNetwork;
+import org.encog.neural.networks.BasicNetwork;
+
+/*
+ * A faster forward pass that still gives exactly the same outputs as
+ * ForwardPass and BasicNetwork.compute(), plus batched evaluation of many
+ * game states in one call.
+ *
+ * Encog stores each layer's weights neuron by neuron, so a forward pass
+ * is one long dot product per neuron. That is a serial chain of adds the
+ * JIT cannot vectorise without changing the order of the sum, and with
+ * it the rounding. Here each layer's weights are stored input by input
+ * instead (transposed), and the pass walks the inputs in order, adding
+ * input y's contribution to every neuron's running sum at once:
+ *
+ *   for y: for x: sum[x] += weight[y][x] * in[y]
+ *
+ * Every neuron still adds its terms in exactly Encog's order, but the
+ * inner loop is a plain element-wise update over contiguous arrays,
+ * which C2 turns into SIMD instructions by itself. Java never fuses the
+ * multiply and the add, so each lane rounds just as the scalar code does.
+ * (The incubator Vector API would need --add-modules on every command
+ * line, and its reductions would change the summation order anyway.)
+ *
+ * Inputs that are exactly zero, which is most of the horizon cells, are
+ * skipped: adding w * 0 to a sum that started at +0 never changes it.
+ * That only holds while every weight is finite, so it is checked
+ * whenever the weights are set.
+ * A dropout factor of exactly 1 is skipped for the same reason.
+ *
+ * An instance is not thread safe; use copy() for another thread.
+ */
+public class BatchForwardPass {
+	private final double[][] weights;		//Per layer: [y * outSize + x] feeds neuron x of layer l + 1 from neuron y of layer l
+	private final int[] feedCounts;			//Neurons per layer, not counting the bias
+	private final int[] layerCounts;		//Neurons per layer, including the bias
+	private final double[] dropoutFactors;	//Encog scales every weight feeding layer l + 1 by this
+	private final ActivationFunction[] activations; //Applied to layer l + 1
+	private final int[] weightOffsets;		//Start of the weights feeding layer l + 1 in Encog's flat array
+	private boolean skipZeros;
+	private final double[][] layers;
+
+	public BatchForwardPass(BasicNetwork network) {
+		this(network.getFlat());
+	}
+
+	public BatchForwardPass(FlatNetwork flat) {
+		int count = flat.getLayerCounts().length;
+		for (int context : flat.getLayerContextCount()) {
+			if (context != 0) throw new IllegalArgumentException("Recurrent networks are not supported");
+		}
+
+		weights = new double[count - 1][];
+		weightOffsets = new int[count - 1];
+		feedCounts = new int[count];
+		layerCounts = new int[count];
+		dropoutFactors = new double[count - 1];
+		activations = new ActivationFunction[count - 1];
+		layers = new double[count][];
+
+		var dropout = flat.getLayerDropoutRates();
+		for (int l = 0; l < count; l++) {
+			int e = count - 1 - l; //Encog's index for the same layer
+			feedCounts[l] = flat.getLayerFeedCounts()[e];
+			layerCounts[l] = flat.getLayerCounts()[e];
+			layers[l] = new double[layerCounts[l]];
+			if (layerCounts[l] > feedCounts[l]) {
+				layers[l][feedCounts[l]] = flat.getBiasActivation()[e]; //The bias neuron comes last and never changes
+			}
+		}
+		for (int l = 0; l < count - 1; l++) {
+			int e = count - 1 - l;
+			weights[l] = new double[layerCounts[l] * feedCounts[l + 1]];
+			weightOffsets[l] = flat.getWeightIndex()[e - 1];
+			dropoutFactors[l] = 1 - (dropout.length > e - 1 ? dropout[e - 1] : 0);
+			activations[l] = flat.getActivationFunctions()[e - 1];
+		}
+		setWeights(flat.getWeights());
+	}
+
+	/*
+	 * Replaces the weights with ones in Encog's FlatNetwork order for the
+	 * same topology, e.g. each genome of a population in turn, without
+	 * allocating. Copies made with copy() share the weight arrays, so
+	 * only call this on a pass that has not been copied.
+	 */
+	public void setWeights(double[] flatWeights) {
+		boolean finite = true;
+		for (int l = 0; l < weights.length; l++) {
+			int inSize = layerCounts[l];
+			int outSize = feedCounts[l + 1];
+			int offset = weightOffsets[l];
+			var transposed = weights[l];
+			for (int x = 0; x < outSize; x++) {
+				for (int y = 0; y < inSize; y++) {
+					double w = flatWeights[offset + x * inSize + y];
+					transposed[y * outSize + x] = w;
+					finite &= Double.isFinite(w);
+				}
+			}
+		}
+		skipZeros = finite;
+	}
+
+	private BatchForwardPass(BatchForwardPass other) {
+		weights = other.weights;
+		weightOffsets = other.weightOffsets;
+		feedCounts = other.feedCounts;
+		layerCounts = other.layerCounts;
+		dropoutFactors = other.dropoutFactors;
+		activations = other.activations;
+		skipZeros = other.skipZeros;
+		layers = new double[other.layers.length][];
+		for (int l = 0; l < layers.length; l++) {
+			layers[l] = other.layers[l].clone(); //Keeps the bias neurons
+		}
+	}
+
+	//Another pass over the same (shared, read only) weights with its own buffers
+	public BatchForwardPass copy() {
+		return new BatchForwardPass(this);
+	}
+
+	//Runs the network on input and writes the output layer into output, without allocating
+	public void compute(double[] input, double[] output) {
+		compute(input, 0, output, 0);
+	}
+
+	/*
+	 * Runs the network on count inputs stored one after the other in
+	 * inputs (getInputCount() values each) and writes the outputs one
+	 * after the other into outputs (getOutputCount() values each).
+	 */
+	public void compute(double[] inputs, double[] outputs, int count) {
+		int inputCount = getInputCount();
+		int outputCount = getOutputCount();
+		for (int s = 0; s < count; s++) {
+			compute(inputs, s * inputCount, outputs, s * outputCount);
+		}
+	}
+
+	private void compute(double[] input, int inputOffset, double[] output, int outputOffset) {
+		System.arraycopy(input, inputOffset, layers[0], 0, feedCounts[0]);
+
+		for (int l = 0; l < activations.length; l++) {
+			double[] in = layers[l];
+			double[] out = layers[l + 1];
+			double[] w = weights[l];
+			int inSize = layerCounts[l];
+			int outSize = feedCounts[l + 1];
+			double factor = dropoutFactors[l];
+
+			for (int x = 0; x < outSize; x++) out[x] = 0;
+			for (int y = 0; y < inSize; y++) {
+				double v = in[y];
+				if (v == 0 && skipZeros) continue;
+				int row = y * outSize;
+				if (factor == 1) {
+					for (int x = 0; x < outSize; x++) {
+						out[x] += w[row + x] * v;
+					}
+				} else {
+					for (int x = 0; x < outSize; x++) {
+						out[x] += w[row + x] * v * factor;
+					}
+				}
+			}
+			activations[l].activationFunction(out, 0, outSize);
+		}
+
+		System.arraycopy(layers[layers.length - 1], 0, output, outputOffset, feedCounts[feedCounts.length - 1]);
+	}
+
+	public int getInputCount() {
+		return feedCounts[0];
+	}
+
+	public int getOutputCount() {
+		return feedCounts[feedCounts.length - 1];
+	}
+}
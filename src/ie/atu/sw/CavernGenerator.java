@@ -0,0 +1,28 @@
+package ie.atu.sw;
+
+/*
+ * Generates the cavern one column at a time. A generator must produce
+ * exactly the same columns after reset(seed) with the same seed, so that
+ * any game can be replayed from its seed. The name is written into
+ * replay files so a replay is played back on the same kind of cavern.
+ */
+public interface CavernGenerator {
+	//Restarts the generator from the first column for the given seed
+	void reset(long seed);
+
+	/*
+	 * Writes the next column into model[offset] to model[offset +
+	 * MODEL_HEIGHT - 1], with 1 for wall and 0 for open space.
+	 */
+	void nextColumn(byte[] model, int offset);
+
+	String getName();
+
+	//Creates the generator with the given name, as stored in a replay
+	static CavernGenerator forName(String name) {
+		return switch (name) {
+			case RandomWalkGenerator.NAME -> new RandomWalkGenerator();
+			default -> throw new IllegalArgumentException("Unknown cavern generator: " + name);
+		};
+	}
+}
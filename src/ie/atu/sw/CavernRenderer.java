@@ -0,0 +1,120 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+import static ie.atu.sw.Simulation.MODEL_WIDTH;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.image.VolatileImage;
+
+/*
+ * Keeps the cavern in an offscreen image and only draws what has changed
+ * since the last frame. The cavern scrolls one column per tick, so the
+ * image is shifted left with a single blit and just the new column(s) on
+ * the right are drawn. Everything is redrawn when the game is reset, when
+ * the simulation has moved on by a whole screen, or when the graphics
+ * card has thrown the image away (VolatileImage contents can be lost at
+ * any time, e.g. when the screen is locked).
+ *
+ * The image is one column wider than the grid. The extra column on the
+ * left is the column that has just scrolled off, so a frame part way
+ * through a tick can be drawn slid left by that fraction of a column,
+ * starting from where the previous tick left the cavern.
+ */
+public class CavernRenderer {
+	private final int scale;
+	private final int width;
+	private final int height;
+
+	private VolatileImage buffer;
+	private long renderedTime = -1; //Simulation time the image shows, -1 = nothing valid
+	private boolean lastFull;
+
+	public CavernRenderer(int scale) {
+		this.scale = scale;
+		this.width = (MODEL_WIDTH + 1) * scale;
+		this.height = MODEL_HEIGHT * scale;
+	}
+
+	/*
+	 * Brings the offscreen cavern up to date with the simulation and draws
+	 * it alpha (0 to 1) of the way from the previous tick to this one. The
+	 * loop is the usual VolatileImage dance: if the contents were lost
+	 * while we were drawing, do it all again.
+	 */
+	public void paint(Graphics2D g, Component component, Simulation sim, double alpha) {
+		do {
+			int status = buffer == null ? VolatileImage.IMAGE_INCOMPATIBLE
+					: buffer.validate(component.getGraphicsConfiguration());
+			if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if (buffer != null) buffer.flush();
+				buffer = component.createVolatileImage(width, height);
+				if (buffer == null) return; //Not on screen yet
+				renderedTime = -1;
+			} else if (status == VolatileImage.IMAGE_RESTORED) {
+				renderedTime = -1;
+			}
+
+			var bg = buffer.createGraphics();
+			try {
+				update(bg, sim);
+			} finally {
+				bg.dispose();
+			}
+			g.drawImage(buffer, -(int) Math.round(alpha * scale), 0, null);
+		} while (buffer.contentsLost());
+	}
+
+	//Forces a full redraw on the next frame, e.g. after a reset
+	public void invalidate() {
+		renderedTime = -1;
+	}
+
+	//True if the last frame had to redraw the whole cavern
+	public boolean wasFullRedraw() {
+		return lastFull;
+	}
+
+	private void update(Graphics2D g, Simulation sim) {
+		long time = sim.getTime();
+		long scrolled = time - renderedTime;
+
+		if (renderedTime < 0 || scrolled < 0 || scrolled > MODEL_WIDTH) {
+			drawColumns(g, sim, 0, MODEL_WIDTH);
+			g.copyArea(scale, 0, scale, height, -scale, 0); //Nothing has scrolled off yet, so repeat the first column
+			lastFull = true;
+		} else if (scrolled > 0) {
+			int shift = (int) scrolled * scale;
+			g.copyArea(shift, 0, width - shift, height, -shift, 0); //Scroll everything left
+			drawColumns(g, sim, MODEL_WIDTH - (int) scrolled, MODEL_WIDTH);
+			lastFull = false;
+		} else {
+			lastFull = false; //Nothing has moved, the image is already up to date
+		}
+		renderedTime = time;
+	}
+
+	/*
+	 * Clears the given grid columns and draws each run of wall cells as one
+	 * rectangle. Grid column x is image column x + 1.
+	 */
+	private void drawColumns(Graphics2D g, Simulation sim, int fromCol, int toCol) {
+		g.setColor(Color.WHITE);
+		g.fillRect((fromCol + 1) * scale, 0, (toCol - fromCol) * scale, height);
+
+		g.setColor(Color.BLACK);
+		for (int x = fromCol; x < toCol; x++) {
+			int y = 0;
+			while (y < MODEL_HEIGHT) {
+				if (sim.get(x, y) == 0) {
+					y++;
+					continue;
+				}
+				int start = y;
+				while (y < MODEL_HEIGHT && sim.get(x, y) != 0) y++;
+				g.fillRect((x + 1) * scale, start * scale, scale, (y - start) * scale);
+			}
+		}
+	}
+}
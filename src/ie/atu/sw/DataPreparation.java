@@ -0,0 +1,257 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+ * Cleans the recorded samples before training. A recording is mostly the
+ * same few states over and over, often with both moves recorded for the
+ * same state, and far more of one move than the other. Training on that
+ * as it is spends most of each epoch on repeats and pulls the network
+ * towards the commoner move.
+ *
+ *   1. Deduplicate: samples with the same input (the cells the network
+ *      sees and the plane's row) are merged into one, labelled with the
+ *      move made most often from it. A state recorded with both moves is
+ *      a conflict; if neither move won it is dropped, as there is nothing
+ *      to learn from it.
+ *   2. Split: the unique samples of each move are shuffled with the seed
+ *      and the same fraction of each is held out for validation, so the
+ *      validation set has the same mix of moves as the data.
+ *   3. Balance: the commoner move's training samples are cut down to as
+ *      many as the other move has.
+ *
+ * The result is a new TrainingData holding the training samples in a
+ * random order, then the validation samples. Indices are shuffled rather
+ * than the samples, so inputs always stay with their labels.
+ *
+ * Hashing and merging run in parallel: every sample's input is hashed,
+ * the samples are split into SHARDS by hash and each shard is merged on
+ * its own with an open addressing table. Equal inputs always land in the
+ * same shard, and within a shard samples are merged in their original
+ * order, so the result only depends on the seed, not the thread count.
+ */
+public class DataPreparation {
+	private static final int SHARD_BITS = 6;
+	private static final int SHARDS 	= 1 << SHARD_BITS;
+
+	private final TrainingConfig config;
+
+	public DataPreparation(TrainingConfig config) {
+		this.config = config;
+	}
+
+	public Result prepare(TrainingData data) throws Exception {
+		long start = System.nanoTime();
+		var result = new Result(data.size());
+		var labels = new byte[data.size()]; //The merged move of each kept sample, 0 for the rest
+
+		int threads = config.getThreads() > 0 ? config.getThreads() : Runtime.getRuntime().availableProcessors();
+		var pool = new ForkJoinPool(threads);
+		try {
+			if (config.isDeduplicate()) {
+				pool.submit(() -> deduplicate(data, labels, result)).get();
+			} else {
+				for (int i = 0; i < labels.length; i++) labels[i] = (byte) data.getAction(i);
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		//Every kept sample by move, in their original order
+		int ups = 0, downs = 0;
+		for (byte label : labels) {
+			if (label < 0) ups++;
+			else if (label > 0) downs++;
+		}
+		var up = new int[ups];
+		var down = new int[downs];
+		ups = downs = 0;
+		for (int i = 0; i < labels.length; i++) {
+			if (labels[i] < 0) up[ups++] = i;
+			else if (labels[i] > 0) down[downs++] = i;
+		}
+
+		var random = new Random(config.getSeed());
+		shuffle(up, up.length, random);
+		shuffle(down, down.length, random);
+		int validationUp = held(up.length);
+		int validationDown = held(down.length);
+		int trainUp = up.length - validationUp;
+		int trainDown = down.length - validationDown;
+		if (config.isBalance() && trainUp > 0 && trainDown > 0) {
+			trainUp = trainDown = Math.min(trainUp, trainDown);
+		}
+		result.unbalanced = up.length - validationUp - trainUp + down.length - validationDown - trainDown;
+
+		//The training samples shuffled together, then the validation samples
+		int trainSize = trainUp + trainDown;
+		int total = trainSize + validationUp + validationDown;
+		var order = new int[total];
+		System.arraycopy(up, validationUp, order, 0, trainUp);
+		System.arraycopy(down, validationDown, order, trainUp, trainDown);
+		shuffle(order, trainSize, random);
+		System.arraycopy(up, 0, order, trainSize, validationUp);
+		System.arraycopy(down, 0, order, trainSize + validationUp, validationDown);
+
+		var newActions = new byte[total];
+		for (int k = 0; k < total; k++) newActions[k] = labels[order[k]];
+		result.data = data.select(order, newActions, total);
+		result.trainSize = trainSize;
+		result.trainUp = trainUp;
+		result.elapsedNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	//Samples of one move held out for validation, leaving at least one to train on
+	private int held(int samples) {
+		int validation = (int) Math.round(samples * config.getValidationFraction());
+		return Math.max(0, Math.min(validation, samples - 1));
+	}
+
+	//Fisher-Yates over the first count indices
+	private static void shuffle(int[] indices, int count, Random random) {
+		for (int i = count - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = indices[i];
+			indices[i] = indices[j];
+			indices[j] = tmp;
+		}
+	}
+
+	/*
+	 * Sets labels[i] to the merged move of every sample i that is the
+	 * first with its input, and leaves the repeats at 0. Run inside the
+	 * pool that should do the work.
+	 */
+	private static void deduplicate(TrainingData data, byte[] labels, Result result) {
+		int size = data.size();
+		var hashes = new long[size];
+		IntStream.range(0, size).parallel().forEach(i -> hashes[i] = data.inputHash(i));
+
+		//Counting sort of the samples by shard, keeping their order within each
+		var offsets = new int[SHARDS + 1];
+		for (long hash : hashes) offsets[(int) (hash >>> (64 - SHARD_BITS)) + 1]++;
+		for (int s = 0; s < SHARDS; s++) offsets[s + 1] += offsets[s];
+		var byShard = new int[size];
+		var next = Arrays.copyOf(offsets, SHARDS);
+		for (int i = 0; i < size; i++) byShard[next[(int) (hashes[i] >>> (64 - SHARD_BITS))]++] = i;
+
+		var counts = new int[SHARDS][];
+		IntStream.range(0, SHARDS).parallel().forEach(s ->
+				counts[s] = mergeShard(data, hashes, byShard, offsets[s], offsets[s + 1], labels));
+
+		result.unique = 0;
+		for (var c : counts) {
+			result.unique += c[0];
+			result.conflicts += c[1];
+			result.conflictSamples += c[2];
+			result.ambiguous += c[3];
+		}
+		result.duplicates = size - result.unique;
+	}
+
+	/*
+	 * Merges the samples byShard[from] to byShard[to - 1] and returns the
+	 * number of unique inputs, the conflicting inputs, the samples with a
+	 * conflicting input and the conflicts that were a tie.
+	 */
+	private static int[] mergeShard(TrainingData data, long[] hashes, int[] byShard, int from, int to, byte[] labels) {
+		int n = to - from;
+		int capacity = Integer.highestOneBit(Math.max(1, n)) << 2; //At most half full
+		int mask = capacity - 1;
+		var table = new int[capacity]; //Group number + 1, 0 = empty
+		var first = new int[n]; //Each group's first sample
+		var ups = new int[n];
+		var downs = new int[n];
+		int groups = 0;
+
+		for (int k = from; k < to; k++) {
+			int i = byShard[k];
+			long hash = hashes[i];
+			int slot = (int) hash & mask;
+			int group;
+			while (true) {
+				group = table[slot] - 1;
+				if (group < 0) {
+					group = groups++;
+					table[slot] = group + 1;
+					first[group] = i;
+					break;
+				}
+				int j = first[group];
+				if (hashes[j] == hash && data.sameInput(i, j)) break;
+				slot = (slot + 1) & mask;
+			}
+			if (data.getAction(i) < 0) ups[group]++;
+			else downs[group]++;
+		}
+
+		int conflicts = 0, conflictSamples = 0, ambiguous = 0;
+		for (int g = 0; g < groups; g++) {
+			if (ups[g] > 0 && downs[g] > 0) {
+				conflicts++;
+				conflictSamples += ups[g] + downs[g];
+			}
+			if (ups[g] == downs[g]) {
+				ambiguous++;
+			} else {
+				labels[first[g]] = (byte) (ups[g] > downs[g] ? -1 : 1);
+			}
+		}
+		return new int[] {groups, conflicts, conflictSamples, ambiguous};
+	}
+
+	//The prepared samples and what was done to get them
+	public static class Result {
+		private final int loaded;
+		private TrainingData data;
+		private int trainSize;
+		private int trainUp;
+		private int unique;
+		private int duplicates;
+		private int conflicts;
+		private int conflictSamples;
+		private int ambiguous;
+		private int unbalanced;
+		private long elapsedNanos;
+
+		private Result(int loaded) {
+			this.loaded = loaded;
+			this.unique = loaded;
+		}
+
+		//The training samples, then the validation samples
+		public TrainingData getData() {
+			return data;
+		}
+
+		public int getTrainSize() {
+			return trainSize;
+		}
+
+		public int getValidationSize() {
+			return data.size() - trainSize;
+		}
+
+		//Samples that repeated an earlier sample's input
+		public int getDuplicates() {
+			return duplicates;
+		}
+
+		//Inputs that were recorded with both moves
+		public int getConflicts() {
+			return conflicts;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d samples: %d duplicates, %d conflicting inputs (%d samples, %d dropped as ties), "
+					+ "%d cut to balance the moves -> %d training (%d UP, %d DOWN) and %d validation samples in %.0fms",
+					loaded, duplicates, conflicts, conflictSamples, ambiguous, unbalanced,
+					trainSize, trainUp, trainSize - trainUp, getValidationSize(), elapsedNanos / 1e6);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+
+/*
+ * Remembers the autopilot's move for horizons it has already seen, so a
+ * repeated cavern shape skips the forward pass. Up to 3 horizon columns
+ * are 60 cells, so a horizon packs exactly into one long (bit r of
+ * column c is bit c * 20 + r, see Simulation.packHorizon()). The player
+ * row is kept next to it, so the key is exact and a hit always returns
+ * the move the network would have made.
+ *
+ * The map is an open-addressing table of primitive arrays with linear
+ * probing, sized to twice the entry limit. Once the limit is reached,
+ * entries are evicted with the CLOCK algorithm. Every hit sets an entry's
+ * referenced flag. The clock hand sweeps the table, clearing flags as it
+ * goes, and evicts the first entry whose flag is already clear. That
+ * gives LRU-like behaviour with no list to maintain. Removal shifts the
+ * following entries of the probe run back, so lookups never need
+ * tombstones.
+ *
+ * Not thread safe. Each controller owns its own.
+ */
+public class DecisionCache {
+	public static final int MISSING = Integer.MIN_VALUE;
+
+	private static final byte EMPTY 	= 0;
+	private static final byte COLD 		= 1; //Not used since the clock hand last passed
+	private static final byte HOT 		= 2; //Used since the clock hand last passed
+
+	private final int maxEntries;
+	private final int mask;
+	private final long[] keys;
+	private final int[] rows;
+	private final byte[] moves;
+	private final byte[] states;
+	private int size;
+	private int hand;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public DecisionCache(int maxEntries) {
+		if (maxEntries < 1) throw new IllegalArgumentException("A decision cache needs room for at least one entry");
+		this.maxEntries = maxEntries;
+		int capacity = Integer.highestOneBit(Math.max(2, maxEntries * 2 - 1)) << 1; //Load factor at most 1/2
+		this.mask = capacity - 1;
+		keys = new long[capacity];
+		rows = new int[capacity];
+		moves = new byte[capacity];
+		states = new byte[capacity];
+	}
+
+	//The cached move, or MISSING
+	public int get(long cells, int row) {
+		for (int i = slot(cells, row); states[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == cells && rows[i] == row) {
+				states[i] = HOT;
+				hits++;
+				return moves[i];
+			}
+		}
+		misses++;
+		return MISSING;
+	}
+
+	public void put(long cells, int row, int move) {
+		int i = slot(cells, row);
+		for (; states[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == cells && rows[i] == row) {
+				moves[i] = (byte) move;
+				return;
+			}
+		}
+		if (size >= maxEntries) {
+			evict();
+			i = slot(cells, row); //Eviction may have moved the run, so probe again
+			while (states[i] != EMPTY) i = (i + 1) & mask;
+		}
+		keys[i] = cells;
+		rows[i] = row;
+		moves[i] = (byte) move;
+		states[i] = COLD;
+		size++;
+	}
+
+	public void clear() {
+		Arrays.fill(states, EMPTY);
+		size = 0;
+		hand = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	//Advances the clock hand to the first entry not used since its last pass and removes it
+	private void evict() {
+		while (true) {
+			byte state = states[hand];
+			if (state == HOT) {
+				states[hand] = COLD;
+			} else if (state == COLD) {
+				remove(hand);
+				evictions++;
+				hand = (hand + 1) & mask;
+				return;
+			}
+			hand = (hand + 1) & mask;
+		}
+	}
+
+	//Empties slot i and shifts back any later entries of the run that can no longer be found
+	private void remove(int i) {
+		states[i] = EMPTY;
+		size--;
+		for (int j = (i + 1) & mask; states[j] != EMPTY; j = (j + 1) & mask) {
+			int home = slot(keys[j], rows[j]);
+			boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+			if (reachable) continue; //Still found by probing from its home slot
+
+			keys[i] = keys[j];
+			rows[i] = rows[j];
+			moves[i] = moves[j];
+			states[i] = states[j];
+			states[j] = EMPTY;
+			i = j;
+		}
+	}
+
+	private int slot(long cells, int row) {
+		long h = (cells ^ (row * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+		return (int) (h ^ (h >>> 31)) & mask;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Decision cache: %d entries, %.1f%% hits (%d hits, %d misses), %d evictions",
+				size, getHitRate() * 100, hits, misses, evictions);
+	}
+}
@@ -0,0 +1,154 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+
+/*
+ * The autopilot's move for every horizon the random walk cavern can
+ * produce, worked out ahead of time so that flying is one array lookup.
+ *
+ * A column of that cavern is a single open gap with wall above and
+ * below. From one column to the next the top and the bottom each move by
+ * at most one row (see RandomWalkGenerator). So a horizon is the gap of
+ * its first column (21 x 21 tops and bottoms), a step of -1, 0 or +1 for
+ * the top and the bottom of every later column, and the player row.
+ * Three columns are 441 x 81 x 20 = 714,420 entries of one byte each.
+ * A horizon that does not fit the pattern, e.g. from another generator
+ * or a plane off the grid, is not in the table and the caller falls
+ * back to the network.
+ */
+public class DecisionTable {
+	public static final int MAX_COLUMNS = 3;
+	public static final int NOT_COVERED = 0;
+
+	private static final int GAP_VALUES = MODEL_HEIGHT + 1; //Tops and bottoms run from 0 to 20
+	private static final int FULL = (1 << MODEL_HEIGHT) - 1;
+	static final int BATCH = 256; //Horizons handed to the network per call
+
+	//Works out the moves for count network inputs laid end to end in inputs
+	@FunctionalInterface
+	public interface Decider {
+		void decide(double[] inputs, int count, int[] moves);
+	}
+
+	private final int columns;
+	private final int steps; //3^(2 * (columns - 1)) combinations of steps
+	private final byte[] moves;
+
+	private DecisionTable(int columns) {
+		if (columns < 1 || columns > MAX_COLUMNS) {
+			throw new IllegalArgumentException("A decision table covers 1 to " + MAX_COLUMNS + " columns, not " + columns);
+		}
+		this.columns = columns;
+		int steps = 1;
+		for (int c = 1; c < columns; c++) steps *= 9;
+		this.steps = steps;
+		this.moves = new byte[GAP_VALUES * GAP_VALUES * steps * MODEL_HEIGHT];
+	}
+
+	/*
+	 * Fills in a table by asking decide for the move at every covered
+	 * horizon. decide is given the network inputs in the given encoding,
+	 * BATCH horizons at a time.
+	 */
+	public static DecisionTable build(int columns, InputEncoding encoding, Decider decide) {
+		var table = new DecisionTable(columns);
+		int size = encoding.inputSize(columns);
+		var inputs = new double[BATCH * size];
+		var indices = new int[BATCH];
+		var moves = new int[BATCH];
+		var tops = new int[columns];
+		var bottoms = new int[columns];
+		int count = 0;
+
+		for (int index = 0; index < table.moves.length; index++) {
+			int row = table.decode(index, tops, bottoms);
+			if (row < 0) continue; //Not a horizon the cavern can produce
+
+			int offset = count * size;
+			for (int c = 0; c < columns; c++) {
+				if (encoding == InputEncoding.GAPS) {
+					InputEncoding.writeGap(inputs, offset + c * 4, tops[c], bottoms[c], row);
+				} else {
+					for (int r = 0; r < MODEL_HEIGHT; r++) {
+						inputs[offset + c * MODEL_HEIGHT + r] = r < tops[c] || r >= bottoms[c] ? 1 : 0;
+					}
+				}
+			}
+			inputs[offset + size - 1] = (double) row / MODEL_HEIGHT;
+			indices[count++] = index;
+			if (count == BATCH) {
+				table.fill(decide, inputs, indices, moves, count);
+				count = 0;
+			}
+		}
+		table.fill(decide, inputs, indices, moves, count);
+		return table;
+	}
+
+	private void fill(Decider decide, double[] inputs, int[] indices, int[] moves, int count) {
+		if (count == 0) return;
+		decide.decide(inputs, count, moves);
+		for (int i = 0; i < count; i++) this.moves[indices[i]] = (byte) moves[i];
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int size() {
+		return moves.length;
+	}
+
+	//The move for a horizon packed as in Simulation.packHorizon(), or NOT_COVERED
+	public int get(long cells, int row) {
+		if (row < 0 || row >= MODEL_HEIGHT) return NOT_COVERED;
+
+		int mask = (int) cells & FULL;
+		int top = Integer.numberOfTrailingZeros(~mask); //Walls run down from row 0 to the gap
+		int bottom = top + Integer.numberOfTrailingZeros(mask >>> top | 1 << (MODEL_HEIGHT - top)); //Then the gap
+		if (top >= bottom || mask != wall(top, bottom)) return NOT_COVERED;
+
+		int index = top * GAP_VALUES + bottom;
+		for (int c = 1; c < columns; c++) {
+			mask = (int) (cells >>> (c * MODEL_HEIGHT)) & FULL;
+			int nextTop = Integer.numberOfTrailingZeros(~mask);
+			int nextBottom = nextTop + Integer.numberOfTrailingZeros(mask >>> nextTop | 1 << (MODEL_HEIGHT - nextTop));
+			int dt = nextTop - top + 1, db = nextBottom - bottom + 1;
+			if (nextTop >= nextBottom || dt < 0 || dt > 2 || db < 0 || db > 2 || mask != wall(nextTop, nextBottom)) {
+				return NOT_COVERED;
+			}
+			index = index * 9 + dt * 3 + db;
+			top = nextTop;
+			bottom = nextBottom;
+		}
+		return moves[index * MODEL_HEIGHT + row];
+	}
+
+	//The cells of a column that is open from top (inclusive) to bottom (exclusive)
+	private static int wall(int top, int bottom) {
+		return ((1 << top) - 1) | (FULL & ~((1 << bottom) - 1));
+	}
+
+	//Unpacks an index into the gaps of each column, returning the row or -1 if the gaps are impossible
+	private int decode(int index, int[] tops, int[] bottoms) {
+		int row = index % MODEL_HEIGHT;
+		index /= MODEL_HEIGHT;
+		int[] dts = new int[columns], dbs = new int[columns];
+		for (int c = columns - 1; c >= 1; c--) {
+			dbs[c] = index % 3 - 1;
+			index /= 3;
+			dts[c] = index % 3 - 1;
+			index /= 3;
+		}
+		tops[0] = index / GAP_VALUES;
+		bottoms[0] = index % GAP_VALUES;
+		for (int c = 1; c < columns; c++) {
+			tops[c] = tops[c - 1] + dts[c];
+			bottoms[c] = bottoms[c - 1] + dbs[c];
+		}
+		for (int c = 0; c < columns; c++) {
+			if (tops[c] < 0 || bottoms[c] > MODEL_HEIGHT || tops[c] >= bottoms[c]) return -1;
+		}
+		return row;
+	}
+}
@@ -0,0 +1,237 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import org.encog.neural.networks.BasicNetwork;
+
+/*
+ * Trains the autopilot by flying it rather than by imitating recorded
+ * moves, so it can end up better than whoever recorded the data. A
+ * population of weight vectors for one network topology is evolved with
+ * a plain genetic algorithm, scored by how long each survives.
+ *
+ * Every generation:
+ *   1. Each genome flies the same `games` headless games, new ones every
+ *      generation so nothing is learned about particular caverns. Its
+ *      fitness is the mean number of ticks survived, up to maxTicks.
+ *   2. The fittest genome also flies a fixed set of VALIDATION_GAMES.
+ *      When it beats the best validation score so far it is handed to
+ *      the checkpoint callback, e.g. to be saved.
+ *   3. The ELITES fittest genomes go into the next generation unchanged.
+ *      The rest are children of two parents picked by tournament, each
+ *      weight taken from either parent, then with probability
+ *      mutationRate nudged by Gaussian noise of standard deviation sigma.
+ *
+ * Fitness is worked out in parallel, one genome at a time per worker.
+ * Each worker thread reuses its own game and BatchForwardPass, loading
+ * each genome's weights into it, so scoring allocates nothing. The games
+ * are seeded and the GA's own random numbers all come from one seed, so
+ * a run is repeatable whatever the number of threads.
+ *
+ * Usage: java ie.atu.sw.EvolutionTrainer [generations] [population] [games] [maxTicks] [threads] [seed] [saved|cells|gaps]
+ */
+public class EvolutionTrainer {
+	private static final int ELITES 			= 4;
+	private static final int TOURNAMENT 		= 3;
+	private static final int VALIDATION_GAMES 	= 32;
+	private static final long VALIDATION_SEED 	= 0x5EED; //Never a training game's seed in practice
+
+	private static final LatencyHistogram GENERATION_TIME = Metrics.histogram("evolution.generation");
+
+	private final BasicNetwork template; //The topology and encoding, and the weights generation 0 starts around
+	private final int population;
+	private final int games;
+	private final long maxTicks;
+	private final int parallelism;
+	private final SplittableRandom random;
+	private double sigma = 0.1;
+	private double mutationRate = 0.1;
+	private double spread = 0.1; //Sigma of the mutations that make generation 0
+
+	private final ThreadLocal<Worker> workers;
+	private double bestValidation;
+
+	public EvolutionTrainer(BasicNetwork template, int population, int games, long maxTicks, int parallelism, long seed) {
+		if (population <= ELITES) throw new IllegalArgumentException("A population needs more than " + ELITES + " genomes");
+		this.template = template;
+		this.population = population;
+		this.games = games;
+		this.maxTicks = maxTicks;
+		this.parallelism = parallelism;
+		this.random = new SplittableRandom(seed);
+		this.workers = ThreadLocal.withInitial(() -> new Worker(template));
+	}
+
+	//How far and how often weights are mutated
+	public void setMutation(double sigma, double mutationRate) {
+		this.sigma = sigma;
+		this.mutationRate = mutationRate;
+	}
+
+	//How far generation 0 is spread around the template: small to refine a trained network, large to start from scratch
+	public void setInitialSpread(double spread) {
+		this.spread = spread;
+	}
+
+	/*
+	 * Evolves for the given number of generations, calling checkpoint
+	 * with a new network each time the validation score improves, and
+	 * returns the best network found. The template flies the validation
+	 * games first, so only networks that beat it are checkpointed. Stops
+	 * early once a champion survives every validation game.
+	 */
+	public BasicNetwork evolve(int generations, Consumer<BasicNetwork> checkpoint) throws Exception {
+		var start = template.getFlat().getWeights();
+		var genomes = new double[population][];
+		genomes[0] = start.clone();
+		for (int i = 1; i < population; i++) {
+			genomes[i] = start.clone();
+			for (int w = 0; w < start.length; w++) genomes[i][w] += spread * gaussian();
+		}
+		var best = start.clone();
+		var fitness = new double[population];
+
+		var pool = new ForkJoinPool(parallelism);
+		try {
+			bestValidation = pool.submit(() -> workers.get().fly(start, VALIDATION_SEED, VALIDATION_GAMES, maxTicks)).get();
+			System.out.println(String.format("Starting network validation %.1f ticks", bestValidation));
+			for (int generation = 0; generation < generations && bestValidation < maxTicks; generation++) {
+				long begin = System.nanoTime();
+				long seed = random.nextLong();
+				var current = genomes;
+				pool.submit(() -> IntStream.range(0, population).parallel()
+						.forEach(i -> fitness[i] = workers.get().fly(current[i], seed, games, maxTicks))).get();
+
+				var order = IntStream.range(0, population).boxed()
+						.sorted(Comparator.comparingDouble((Integer i) -> -fitness[i]).thenComparingInt(i -> i))
+						.mapToInt(Integer::intValue).toArray();
+				var champion = genomes[order[0]];
+				double validation = pool.submit(() -> workers.get().fly(champion, VALIDATION_SEED, VALIDATION_GAMES, maxTicks)).get();
+				boolean improved = validation > bestValidation;
+				if (improved) {
+					bestValidation = validation;
+					best = champion.clone();
+					checkpoint.accept(toNetwork(best));
+				}
+				GENERATION_TIME.recordSince(begin);
+				System.out.println(String.format("Generation %d: best %.1f, mean %.1f ticks, champion validation %.1f%s",
+						generation, fitness[order[0]], Arrays.stream(fitness).average().orElse(0), validation,
+						improved ? " (new best)" : ""));
+
+				genomes = breed(genomes, fitness, order);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return toNetwork(best);
+	}
+
+	private double[][] breed(double[][] genomes, double[] fitness, int[] order) {
+		var next = new double[population][];
+		for (int i = 0; i < ELITES; i++) next[i] = genomes[order[i]];
+		for (int i = ELITES; i < population; i++) {
+			var a = genomes[tournament(fitness)];
+			var b = genomes[tournament(fitness)];
+			var child = new double[a.length];
+			for (int w = 0; w < child.length; w++) child[w] = random.nextBoolean() ? a[w] : b[w];
+			mutate(child, mutationRate);
+			next[i] = child;
+		}
+		return next;
+	}
+
+	//The fittest of TOURNAMENT genomes picked at random
+	private int tournament(double[] fitness) {
+		int best = random.nextInt(population);
+		for (int k = 1; k < TOURNAMENT; k++) {
+			int other = random.nextInt(population);
+			if (fitness[other] > fitness[best]) best = other;
+		}
+		return best;
+	}
+
+	private void mutate(double[] genome, double rate) {
+		for (int w = 0; w < genome.length; w++) {
+			if (random.nextDouble() < rate) genome[w] += sigma * gaussian();
+		}
+	}
+
+	//Box-Muller, from the GA's own random numbers so a run can be repeated
+	private double gaussian() {
+		return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+	}
+
+	private BasicNetwork toNetwork(double[] genome) {
+		var network = (BasicNetwork) template.clone();
+		System.arraycopy(genome, 0, network.getFlat().getWeights(), 0, genome.length);
+		return network;
+	}
+
+	public double getBestValidation() {
+		return bestValidation;
+	}
+
+	//One worker thread's game, forward pass and buffers, reused for every genome it flies
+	private static class Worker {
+		private final Simulation sim = new Simulation(0);
+		private final BatchForwardPass forward;
+		private final InputEncoding encoding;
+		private final int columns;
+		private final double[] input;
+		private final double[] output = new double[2];
+		private final Pilot pilot;
+
+		private Worker(BasicNetwork template) {
+			forward = new BatchForwardPass(template);
+			encoding = InputEncoding.of(template);
+			columns = encoding.columns(template.getInputCount());
+			input = new double[template.getInputCount()];
+			pilot = sim -> {
+				forward.compute(encoding.encode(sim, input, columns), output);
+				return output[1] > output[0] ? 1 : -1;
+			};
+		}
+
+		//Mean ticks survived by the genome over the games seeded from seed
+		private double fly(double[] genome, long seed, int games, long maxTicks) {
+			forward.setWeights(genome);
+			long total = 0;
+			for (int g = 0; g < games; g++) {
+				sim.reset(seed + g);
+				total += sim.run(pilot, maxTicks);
+			}
+			return (double) total / games;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int generations = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int population = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int games = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		long maxTicks = args.length > 3 ? Long.parseLong(args[3]) : 2000;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : 0;
+		var start = args.length > 6 ? args[6] : "saved";
+
+		//Start from the saved network, or a new one in the given encoding
+		var controller = new NeuralNetworkController();
+		if (start.equals("saved")) {
+			if (!controller.loadNetwork()) {
+				System.err.println("No saved network to start from - use cells or gaps to start a new one");
+				return;
+			}
+		} else {
+			controller.createNetwork((int) seed, InputEncoding.valueOf(start.toUpperCase()));
+		}
+
+		var trainer = new EvolutionTrainer(controller.getNetwork(), population, games, maxTicks, threads, seed);
+		if (!start.equals("saved")) trainer.setInitialSpread(1.0);
+		trainer.evolve(generations, network -> new NeuralNetworkController(network).saveNetwork());
+		System.out.println(String.format("Best validation survival: %.1f ticks over %d games", trainer.getBestValidation(), VALIDATION_GAMES));
+	}
+}
@@ -0,0 +1,128 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.HORIZON_SIZE;
+import static ie.atu.sw.Simulation.MODEL_WIDTH;
+import static ie.atu.sw.Simulation.PLAYER_COLUMN;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+ * Makes training data without anyone playing: headless games are flown
+ * and every decision is labelled with ExpertPilot's move, in the same
+ * 202-field CSV rows that TrainingRecorder writes and trainNetwork()
+ * reads. A million samples take seconds rather than hours of play, and
+ * none of them are the human mistakes a recording is full of.
+ *
+ * If the plane only ever flew the expert's line it would never see the
+ * states a network gets into once it strays, so with probability
+ * explore the move actually made is a random one. The label is always
+ * the expert's move from that state. A game that crashes starts again.
+ *
+ * The work is split into chunks of CHUNK_SAMPLES, each with its own
+ * game seeded from the base seed and the chunk number. Chunks are made
+ * in parallel and written in order, so the same seed gives the same
+ * file whatever the number of threads.
+ *
+ * Usage: java ie.atu.sw.ExpertDataGenerator [samples] [file] [threads] [seed] [explore]
+ */
+public class ExpertDataGenerator {
+	private static final int CHUNK_SAMPLES 	= 4096;
+	private static final int WARM_UP_TICKS 	= MODEL_WIDTH - PLAYER_COLUMN; //Until the cavern fills the grid ahead of the plane
+
+	private final int parallelism;
+	private final long seed;
+	private final double explore;
+
+	public ExpertDataGenerator(int parallelism, long seed, double explore) {
+		this.parallelism = parallelism;
+		this.seed = seed;
+		this.explore = explore;
+	}
+
+	/*
+	 * Appends samples rows to out and returns how many games were flown.
+	 * Chunks are made a wave at a time, a few per thread, so only a wave's
+	 * worth of text is ever held in memory.
+	 */
+	public long generate(long samples, Writer out) throws Exception {
+		int chunks = (int) ((samples + CHUNK_SAMPLES - 1) / CHUNK_SAMPLES);
+		int wave = parallelism * 4;
+		var texts = new String[wave];
+		var games = new long[wave];
+		long totalGames = 0;
+
+		var pool = new ForkJoinPool(parallelism);
+		try {
+			for (int first = 0; first < chunks; first += wave) {
+				int start = first;
+				int count = Math.min(wave, chunks - first);
+				pool.submit(() -> IntStream.range(0, count).parallel().forEach(i -> {
+					int chunk = start + i;
+					int size = (int) Math.min(CHUNK_SAMPLES, samples - (long) chunk * CHUNK_SAMPLES);
+					var text = new StringBuilder(size * (HORIZON_SIZE * 4 + 16));
+					games[i] = generateChunk(chunk, size, text);
+					texts[i] = text.toString();
+				})).get();
+				for (int i = 0; i < count; i++) {
+					out.write(texts[i]);
+					texts[i] = null;
+					totalGames += games[i];
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return totalGames;
+	}
+
+	//Flies games until size samples have been labelled, appends them to text and returns the number of games
+	private long generateChunk(int chunk, int size, StringBuilder text) {
+		var random = new SplittableRandom(seed ^ (chunk * 0x9E3779B97F4A7C15L));
+		var expert = new ExpertPilot();
+		var sim = new Simulation(random.nextLong());
+		var cells = new byte[HORIZON_SIZE];
+		long games = 1;
+
+		for (int made = 0; made < size;) {
+			sim.advance();
+			int move = expert.nextMove(sim);
+			if (sim.getTime() > WARM_UP_TICKS) {
+				sim.copyHorizon(cells, 0);
+				TrainingRecorder.appendRow(text, cells, 0, sim.getPlayerRow(), move);
+				made++;
+			}
+			sim.move(random.nextDouble() < explore ? (random.nextBoolean() ? -1 : 1) : move);
+			if (sim.checkCollision()) {
+				sim.reset(random.nextLong());
+				games++;
+			}
+		}
+		return games;
+	}
+
+	public static void main(String[] args) throws Exception {
+		long samples = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+		var file = args.length > 1 ? args[1] : "resources/training_data.csv";
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		double explore = args.length > 4 ? Double.parseDouble(args[4]) : 0.2;
+
+		long start = System.nanoTime();
+		long games;
+		try (var out = new BufferedWriter(new FileWriter(file, true), 1 << 16)) { //Appended, like a recording
+			games = new ExpertDataGenerator(threads, seed, explore).generate(samples, out);
+		} catch (IOException e) {
+			System.err.println("Failed to write " + file + ": " + e.getMessage());
+			return;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d expert samples from %d games appended to %s in %.1fs (%.0f samples/s)",
+				samples, games, file, seconds, samples / seconds));
+	}
+}
@@ -0,0 +1,74 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+import static ie.atu.sw.Simulation.MODEL_WIDTH;
+import static ie.atu.sw.Simulation.PLAYER_COLUMN;
+
+/*
+ * A pilot that looks at the whole cavern ahead of the plane, all 15
+ * columns from the one it is about to fly into to the right hand edge,
+ * and searches every UP/DOWN path through it. It is what the network
+ * should learn to be, and labels the training data made by
+ * ExpertDataGenerator.
+ *
+ * The search is a dynamic program over (column, row), working back from
+ * the edge of the grid:
+ *   depth(c, r) = columns the plane can still fly from row r of column c
+ *   paths(c, r) = UP/DOWN paths from there that reach the edge
+ * A move is scored by where it lands in the plane's column: the one
+ * that can fly further wins. When both are as good, which is most of
+ * the time, it steers towards the middle of the gap in the next column,
+ * which the network sees too, so the labels are ones it can learn.
+ * Failing that it takes the move with more paths through. Only UP and
+ * DOWN are considered, as the network can only make those.
+ *
+ * Not thread safe, as it reuses its tables; use one per thread.
+ */
+public class ExpertPilot implements Pilot {
+	private static final int COLUMNS = MODEL_WIDTH - PLAYER_COLUMN; //Known columns, from the plane's to the edge
+
+	private final int[] depth = new int[COLUMNS * MODEL_HEIGHT];
+	private final long[] paths = new long[COLUMNS * MODEL_HEIGHT];
+
+	@Override
+	public int nextMove(Simulation sim) {
+		search(sim);
+		int row = sim.getPlayerRow();
+		int up = row - 1, down = row + 1;
+		int byDepth = Integer.compare(depthAt(0, up), depthAt(0, down));
+		if (byDepth != 0) return byDepth > 0 ? -1 : 1;
+
+		int next = PLAYER_COLUMN + 1;
+		double centre = (sim.getGapTop(next) + sim.getGapBottom(next) - 1) / 2.0;
+		if (row != centre) return row > centre ? -1 : 1;
+		return pathsAt(0, up) >= pathsAt(0, down) ? -1 : 1;
+	}
+
+	//Fills in depth and paths for every cell from the right hand edge back to the plane's column
+	private void search(Simulation sim) {
+		for (int c = COLUMNS - 1; c >= 0; c--) {
+			int walls = sim.getColumnMask(PLAYER_COLUMN + c);
+			for (int r = 0; r < MODEL_HEIGHT; r++) {
+				int i = c * MODEL_HEIGHT + r;
+				if ((walls >>> r & 1) != 0) {
+					depth[i] = 0;
+					paths[i] = 0;
+				} else if (c == COLUMNS - 1) {
+					depth[i] = 1;
+					paths[i] = 1;
+				} else {
+					depth[i] = 1 + Math.max(depthAt(c + 1, r - 1), depthAt(c + 1, r + 1));
+					paths[i] = pathsAt(c + 1, r - 1) + pathsAt(c + 1, r + 1); //At most 2^14, no overflow
+				}
+			}
+		}
+	}
+
+	private int depthAt(int c, int r) {
+		return r < 0 || r >= MODEL_HEIGHT ? 0 : depth[c * MODEL_HEIGHT + r];
+	}
+
+	private long pathsAt(int c, int r) {
+		return r < 0 || r >= MODEL_HEIGHT ? 0 : paths[c * MODEL_HEIGHT + r];
+	}
+}
@@ -0,0 +1,116 @@
+package ie.atu.sw;
+
+import org.encog.engine.network.activation.ActivationFunction;
+import org.encog.neural.flat.FlatNetwork;
+import org.encog.neural.networks.BasicNetwork;
+
+/*
+ * A plain feed forward pass over the weights of a trained network. The
+ * weights are copied out of Encog's FlatNetwork into one flat double[]
+ * and every intermediate layer lives in a buffer allocated up front, so
+ * compute() never allocates. The sums are accumulated in exactly the
+ * same order as FlatNetwork.computeLayer(), so the outputs are bit for
+ * bit the same as BasicNetwork.compute().
+ *
+ * Layers are numbered from the input (0) to the output, which is the
+ * reverse of Encog's internal order. An instance is not thread safe;
+ * use copy() to get another one that shares the weights.
+ */
+public class ForwardPass {
+	private final double[] weights;
+	private final int[] weightOffsets;		//Start of the weights feeding layer l + 1 from layer l
+	private final int[] feedCounts;			//Neurons per layer, not counting the bias
+	private final int[] layerCounts;		//Neurons per layer, including the bias
+	private final double[] dropoutFactors;	//Encog scales every weight feeding layer l + 1 by this
+	private final ActivationFunction[] activations; //Applied to layer l + 1
+	private final double[][] layers;
+
+	public ForwardPass(BasicNetwork network) {
+		this(network.getFlat());
+	}
+
+	public ForwardPass(FlatNetwork flat) {
+		int count = flat.getLayerCounts().length;
+		for (int context : flat.getLayerContextCount()) {
+			if (context != 0) throw new IllegalArgumentException("Recurrent networks are not supported");
+		}
+
+		weights = flat.getWeights().clone();
+		weightOffsets = new int[count - 1];
+		feedCounts = new int[count];
+		layerCounts = new int[count];
+		dropoutFactors = new double[count - 1];
+		activations = new ActivationFunction[count - 1];
+		layers = new double[count][];
+
+		var dropout = flat.getLayerDropoutRates();
+		for (int l = 0; l < count; l++) {
+			int e = count - 1 - l; //Encog's index for the same layer
+			feedCounts[l] = flat.getLayerFeedCounts()[e];
+			layerCounts[l] = flat.getLayerCounts()[e];
+			layers[l] = new double[layerCounts[l]];
+			if (layerCounts[l] > feedCounts[l]) {
+				layers[l][feedCounts[l]] = flat.getBiasActivation()[e]; //The bias neuron never changes
+			}
+			if (l < count - 1) {
+				weightOffsets[l] = flat.getWeightIndex()[e - 1];
+				dropoutFactors[l] = 1 - (dropout.length > e - 1 ? dropout[e - 1] : 0);
+				activations[l] = flat.getActivationFunctions()[e - 1];
+			}
+		}
+	}
+
+	private ForwardPass(ForwardPass other) {
+		weights = other.weights;
+		weightOffsets = other.weightOffsets;
+		feedCounts = other.feedCounts;
+		layerCounts = other.layerCounts;
+		dropoutFactors = other.dropoutFactors;
+		activations = other.activations;
+		layers = new double[other.layers.length][];
+		for (int l = 0; l < layers.length; l++) {
+			layers[l] = other.layers[l].clone();
+		}
+	}
+
+	//Another forward pass over the same (shared, read only) weights with its own buffers
+	public ForwardPass copy() {
+		return new ForwardPass(this);
+	}
+
+	/*
+	 * Runs the network on input and writes the output layer into output.
+	 * Both arrays belong to the caller and nothing is allocated.
+	 */
+	public void compute(double[] input, double[] output) {
+		System.arraycopy(input, 0, layers[0], 0, feedCounts[0]);
+
+		for (int l = 0; l < activations.length; l++) {
+			double[] in = layers[l];
+			double[] out = layers[l + 1];
+			int inSize = layerCounts[l];
+			int outSize = feedCounts[l + 1];
+			double factor = dropoutFactors[l];
+			int w = weightOffsets[l];
+
+			for (int x = 0; x < outSize; x++) {
+				double sum = 0;
+				for (int y = 0; y < inSize; y++) {
+					sum += weights[w++] * in[y] * factor;
+				}
+				out[x] = sum;
+			}
+			activations[l].activationFunction(out, 0, outSize);
+		}
+
+		System.arraycopy(layers[layers.length - 1], 0, output, 0, feedCounts[feedCounts.length - 1]);
+	}
+
+	public int getInputCount() {
+		return feedCounts[0];
+	}
+
+	public int getOutputCount() {
+		return feedCounts[feedCounts.length - 1];
+	}
+}
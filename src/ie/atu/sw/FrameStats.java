@@ -0,0 +1,74 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+
+/*
+ * Frame time instrumentation for GameView. Records how long each
+ * paintComponent() took and how long it was since the previous frame,
+ * over a sliding window of the most recent frames. The paint time says
+ * how much headroom there is for a bigger SCALING_FACTOR; the frame
+ * interval says whether the machine is keeping up with the tick rate.
+ */
+public class FrameStats {
+	private static final int WINDOW = 256;
+
+	private final long[] paintNanos = new long[WINDOW];
+	private final long[] intervalNanos = new long[WINDOW];
+	private final long[] sorted = new long[WINDOW]; //Scratch space for the percentiles
+	private long frames;
+	private long fullRedraws;
+	private long lastFrameStart;
+
+	//Call with System.nanoTime() at the start and end of a frame
+	public void record(long start, long end, boolean fullRedraw) {
+		int slot = (int) (frames % WINDOW);
+		paintNanos[slot] = end - start;
+		intervalNanos[slot] = lastFrameStart == 0 ? 0 : start - lastFrameStart;
+		lastFrameStart = start;
+		frames++;
+		if (fullRedraw) fullRedraws++;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	public void reset() {
+		frames = 0;
+		fullRedraws = 0;
+		lastFrameStart = 0;
+	}
+
+	//Paint time in milliseconds at the given percentile of the window
+	public double paintMillis(double percentile) {
+		return percentile(paintNanos, percentile) / 1e6;
+	}
+
+	//Average time between frames in milliseconds over the window
+	public double meanIntervalMillis() {
+		int n = (int) Math.min(frames, WINDOW);
+		long total = 0;
+		int counted = 0;
+		for (int i = 0; i < n; i++) {
+			if (intervalNanos[i] == 0) continue;
+			total += intervalNanos[i];
+			counted++;
+		}
+		return counted == 0 ? 0 : total / (counted * 1e6);
+	}
+
+	private double percentile(long[] values, double percentile) {
+		int n = (int) Math.min(frames, WINDOW);
+		if (n == 0) return 0;
+		System.arraycopy(values, 0, sorted, 0, n);
+		Arrays.sort(sorted, 0, n);
+		int index = (int) Math.ceil(percentile / 100.0 * n) - 1;
+		return sorted[Math.max(0, Math.min(n - 1, index))];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Frames: %d (%d full redraws), paint p50=%.3fms p99=%.3fms max=%.3fms, frame interval %.1fms",
+				frames, fullRedraws, paintMillis(50), paintMillis(99), paintMillis(100), meanIntervalMillis());
+	}
+}
@@ -0,0 +1,132 @@
+package ie.atu.sw;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A fixed-timestep game loop on its own thread. The game is ticked at
+ * exactly one tick per tickNanos of wall-clock time, however long the
+ * frames take to paint, and frames are requested at most once per
+ * frameNanos in between. Each frame is told how far through the current
+ * tick it is (0 to 1) so the renderer can interpolate between the last
+ * two game states.
+ *
+ * If the machine falls so far behind that more than MAX_CATCH_UP ticks
+ * are owed, the extra ticks are dropped and counted rather than played
+ * in a burst. The game then runs slower instead of spiralling.
+ */
+public class GameLoop implements Runnable {
+	private static final int MAX_CATCH_UP = 5;
+	private static final LatencyHistogram TICK_TIME = Metrics.histogram("game.tick");
+	private static final LongAdder DROPPED = Metrics.counter("game.ticks.dropped");
+
+	public interface Game {
+		//Plays one tick. Returns false once the game is over.
+		boolean tick();
+
+		//Requests a frame, alpha is how far the clock is through the next tick
+		void render(double alpha);
+	}
+
+	private final Game game;
+	private final long tickNanos;
+	private final long frameNanos;
+
+	private volatile boolean running;
+	private Thread thread;
+	private volatile long ticks;
+	private volatile long frames;
+	private volatile long droppedTicks;
+
+	public GameLoop(Game game, long tickMillis, int maxFrameRate) {
+		this.game = game;
+		this.tickNanos = tickMillis * 1_000_000L;
+		this.frameNanos = 1_000_000_000L / maxFrameRate;
+	}
+
+	//Starts a new loop thread, stopping the old one first
+	public synchronized void start() {
+		stop();
+		running = true;
+		thread = new Thread(this, "game-loop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	//Stops the loop and waits for the thread to finish its tick
+	public synchronized void stop() {
+		running = false;
+		if (thread == null) return;
+		if (thread != Thread.currentThread()) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		thread = null;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public long getTicks() {
+		return ticks;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	public long getDroppedTicks() {
+		return droppedTicks;
+	}
+
+	@Override
+	public void run() {
+		long previous = System.nanoTime();
+		long lag = 0;
+		long nextFrame = previous;
+
+		while (running) {
+			long now = System.nanoTime();
+			lag += now - previous;
+			previous = now;
+
+			int caughtUp = 0;
+			while (lag >= tickNanos && running) {
+				if (caughtUp == MAX_CATCH_UP) {
+					droppedTicks += lag / tickNanos;
+					DROPPED.add(lag / tickNanos);
+					lag %= tickNanos;
+					break;
+				}
+				lag -= tickNanos;
+				caughtUp++;
+				ticks++;
+				long start = System.nanoTime();
+				boolean alive = game.tick();
+				TICK_TIME.recordSince(start);
+				if (!alive) {
+					running = false;
+					game.render(1.0); //Show the crash where it happened
+					frames++;
+					return;
+				}
+			}
+
+			if (now >= nextFrame) {
+				game.render((double) lag / tickNanos);
+				frames++;
+				nextFrame = now + frameNanos;
+			}
+
+			//Sleep until whichever comes first, the next tick or the next frame
+			long wake = Math.min(previous + (tickNanos - lag), nextFrame);
+			long sleep = wake - System.nanoTime();
+			if (sleep > 0) LockSupport.parkNanos(this, sleep);
+		}
+	}
+}
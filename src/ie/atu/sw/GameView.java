@@ -1,7 +1,8 @@
 package ie.atu.sw;
 
-import static java.lang.Math.max;
-import static java.lang.Math.min;
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+import static ie.atu.sw.Simulation.MODEL_WIDTH;
+import static ie.atu.sw.Simulation.PLAYER_COLUMN;
 import static java.util.concurrent.ThreadLocalRandom.current;
 
 import java.awt.Color;
@@ -9,65 +10,74 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 
 import javax.swing.JPanel;
-import javax.swing.Timer;
 
-public class GameView extends JPanel implements ActionListener{
+public class GameView extends JPanel implements GameLoop.Game{
 	//Some constants
 	private static final long serialVersionUID	= 1L;
-	private static final int MODEL_WIDTH 		= 30;
-	private static final int MODEL_HEIGHT 		= 20;
 	private static final int SCALING_FACTOR 	= 30;
-	
-	private static final int MIN_TOP 			= 2;
-	private static final int MIN_BOTTOM 		= 18;
-	private static final int PLAYER_COLUMN 		= 15;
-	private static final int TIMER_INTERVAL 	= 100;
-	
-	private static final byte ONE_SET 			=  1;
-	private static final byte ZERO_SET 			=  0;
+	private static final int TIMER_INTERVAL 	= 100; //Milliseconds per game tick
+	private static final int FRAME_RATE 		= 60;  //Most frames painted per second
+	private static final int STATS_INTERVAL 	= 100; //Frames between frame stats lines
+	private static final String REPLAY_DIR 		= "resources/replays";
+	private static final int AUTOPILOT_CACHE 	= 1 << 16; //Decisions remembered by the autopilot
+	private static final long METRICS_INTERVAL 	= 5000; //Milliseconds between metrics reports
+	private static final String METRICS_CSV 	= "resources/metrics.csv";
+	private static final LatencyHistogram RENDER_TIME = Metrics.histogram("game.render");
+	private static final int REPLAY_CAPACITY 	= 20_000; //Most recent samples kept by online learning
 
 	/*
-	 * The 30x20 game grid is implemented using a linked list of 
-	 * 30 elements, where each element contains a byte[] of size 20. 
+	 * The cavern, the plane and crash detection all live in the
+	 * simulation. This class just renders it and feeds it key presses.
+	 * The game loop thread ticks it and the EDT paints it and moves the
+	 * plane, so every access to it is synchronized on it.
 	 */
-	private LinkedList<byte[]> model = new LinkedList<>();
-
-	//These two variables are used by the cavern generator. 
-	private int prevTop = MIN_TOP;
-	private int prevBot = MIN_BOTTOM;
+	private final Simulation sim = new Simulation();
 	
-	//Once the timer stops, the game is over
-	private Timer timer;
-	private long time;
-	
-	private int playerRow = 11;
-	private int index = MODEL_WIDTH - 1; //Start generating at the end
+	//Once the loop stops, the game is over
+	private GameLoop loop;
 	private Dimension dim;
 	
+	//Where the last frame was drawn between the previous tick and the current one
+	private volatile double alpha = 1.0;
+	private int previousRow; //Player row before the last tick
+	private long spriteTime = -1;
+	private BufferedImage planeImage;
+	
 	//Some fonts for the UI display
 	private Font font = new Font ("Dialog", Font.BOLD, 50);
 	private Font over = new Font ("Dialog", Font.BOLD, 100);
+	private Font small = new Font ("Dialog", Font.PLAIN, 14);
+	
+	//Offscreen cavern image and frame time instrumentation
+	private CavernRenderer renderer = new CavernRenderer(SCALING_FACTOR);
+	private FrameStats frameStats = new FrameStats();
+	private boolean showFrameStats;
+	private MetricsReporter metricsReporter;
 
 	private Sprite sprite;
 	private Sprite dyingSprite;
 	
-	private boolean auto;
+	private volatile boolean auto;
 	
 	// Simple data collection
 	private boolean collectingData = false;
-	private PrintWriter trainingWriter;
+	private TrainingRecorder recorder;
 	
-	// Neural network controller
+	// Neural network controller, kept up to date with the network file by the watcher
 	private NeuralNetworkController neuralNetwork;
+	private NetworkWatcher networkWatcher;
+	private Thread trainer;
+	private volatile NeuralNetworkController trainingController; //The one the trainer thread is training, to cancel it
+	private OnlineTrainer onlineTrainer; //Learns from manual play as it happens, null = off
+	private Thread onlineStopper; //Stops the online trainer and saves its network, off the EDT
 
 	public GameView(boolean auto) throws Exception{
 		this.auto = auto; //Use the autopilot
@@ -80,25 +90,19 @@ public class GameView extends JPanel implements ActionListener{
     	super.setMinimumSize(dim);
     	super.setMaximumSize(dim);
 		
-    	initModel();
-    	
     	// Initialize neural network
     	neuralNetwork = new NeuralNetworkController();
-    	if (auto) {
-    		if (!neuralNetwork.loadNetwork()) {
-    			System.out.println("No trained network found. Train first or use manual mode.");
-    		}
+    	neuralNetwork.enableDecisionCache(AUTOPILOT_CACHE); //Same decisions, usually without the forward pass
+    	networkWatcher = neuralNetwork.watchNetwork(); //Loads in the background and again whenever it is retrained
+    	if (auto && !Files.exists(Paths.get(NeuralNetworkController.NETWORK_FILE)) && !Files.exists(Paths.get(NeuralNetworkController.MODEL_FILE))) {
+    		System.out.println("No trained network found. Train first or use manual mode.");
     	}
     	
-		timer = new Timer(TIMER_INTERVAL, this); //Timer calls actionPerformed() every second
-		timer.start();
-	}
-	
-	//Build our game grid
-	private void initModel() {
-		for (int i = 0; i < MODEL_WIDTH; i++) {
-			model.add(new byte[MODEL_HEIGHT]);
-		}
+		Metrics.registerMBean(); //Everything is visible in jconsole
+		previousRow = sim.getPlayerRow();
+		sim.startReplay(); //Every game is recorded and saved if it ends in a crash
+		loop = new GameLoop(this, TIMER_INTERVAL, FRAME_RATE); //Calls tick() every TIMER_INTERVAL ms
+		loop.start();
 	}
 	
 	public void setSprite(Sprite s) {
@@ -109,37 +113,32 @@ public class GameView extends JPanel implements ActionListener{
 		this.dyingSprite = s;
 	}
 	
-	//Called every second by actionPerformed(). Paint methods are usually ugly.
+	/*
+	 * Called whenever the game loop asks for a frame. The cavern is cached
+	 * in an offscreen image by the renderer, so a frame is one blit plus
+	 * the new column, the plane and the HUD. The cavern and the plane are
+	 * drawn alpha of the way from the previous tick to the current one.
+	 */
 	public void paintComponent(Graphics g) {
-        super.paintComponent(g);
+        long start = System.nanoTime();
         var g2 = (Graphics2D)g;
+        double a = alpha;
         
-        g2.setColor(Color.WHITE);
-        g2.fillRect(0, 0, dim.width, dim.height);
-        
-        int x1 = 0, y1 = 0;
-        for (int x = 0; x < MODEL_WIDTH; x++) {
-        	for (int y = 0; y < MODEL_HEIGHT; y++){  
-    			x1 = x * SCALING_FACTOR;
-        		y1 = y * SCALING_FACTOR;
-
-        		if (model.get(x)[y] != 0) {
-            		if (y == playerRow && x == PLAYER_COLUMN) {
-            			timer.stop(); //Crash...
-            		}
-            		g2.setColor(Color.BLACK);
-            		g2.fillRect(x1, y1, SCALING_FACTOR, SCALING_FACTOR);
-        		}
-        		
-        		if (x == PLAYER_COLUMN && y == playerRow) {
-        			if (timer.isRunning()) {
-            			g2.drawImage(sprite.getNext(), x1, y1, null);
-        			}else {
-            			g2.drawImage(dyingSprite.getNext(), x1, y1, null);
-        			}
-        			
-        		}
+        long time;
+        boolean crashed;
+        synchronized (sim) {
+        	renderer.paint(g2, this, sim, a);
+        	time = sim.getTime();
+        	crashed = sim.isCrashed();
+        	
+        	if (time != spriteTime) { //Animate the sprites once per tick, not once per frame
+        		planeImage = crashed ? dyingSprite.getNext() : sprite.getNext();
+        		spriteTime = time;
         	}
+        	
+        	int x1 = PLAYER_COLUMN * SCALING_FACTOR;
+        	int y1 = (int) Math.round((previousRow + (sim.getPlayerRow() - previousRow) * a) * SCALING_FACTOR);
+        	g2.drawImage(planeImage, x1, y1, null);
         }
         
         /*
@@ -152,29 +151,62 @@ public class GameView extends JPanel implements ActionListener{
         g2.setColor(Color.WHITE);
         g2.drawString("Time: " + (int)(time * (TIMER_INTERVAL/1000.0d)) + "s", 1 * SCALING_FACTOR + 10, (15 * SCALING_FACTOR) + (2 * SCALING_FACTOR));
         
-        if (!timer.isRunning()) {
+        if (crashed) {
 			g2.setFont(over);
 			g2.setColor(Color.RED);
 			g2.drawString("Game Over!", MODEL_WIDTH / 5 * SCALING_FACTOR, MODEL_HEIGHT / 2* SCALING_FACTOR);
         }
+        
+        if (showFrameStats) {
+        	g2.setFont(small);
+        	g2.setColor(Color.BLUE);
+        	g2.drawString(String.format("paint %.2fms (p99 %.2fms)  frame %.1fms",
+        			frameStats.paintMillis(50), frameStats.paintMillis(99), frameStats.meanIntervalMillis()), 10, 20);
+        }
+        
+        long end = System.nanoTime();
+        frameStats.record(start, end, renderer.wasFullRedraw());
+        RENDER_TIME.record(end - start);
+        if (showFrameStats && frameStats.getFrames() % STATS_INTERVAL == 0) {
+        	System.out.println(frameStats + ", ticks dropped " + loop.getDroppedTicks());
+        }
+	}
+	
+	//Shows the frame times on screen and logs them every STATS_INTERVAL frames
+	public void toggleFrameStats() {
+		showFrameStats = !showFrameStats;
+		frameStats.reset();
+		System.out.println("Frame stats " + (showFrameStats ? "on" : "off"));
+		repaint();
+	}
+
+	//Logs the metrics every METRICS_INTERVAL ms and appends them to METRICS_CSV
+	public void toggleMetrics() {
+		if (metricsReporter != null) {
+			metricsReporter.stop();
+			metricsReporter = null;
+			System.out.println("Metrics reporting off");
+		} else {
+			metricsReporter = new MetricsReporter(METRICS_INTERVAL, Paths.get(METRICS_CSV));
+			metricsReporter.start();
+			System.out.println("Metrics reporting on, every " + METRICS_INTERVAL / 1000 + "s to " + METRICS_CSV);
+		}
 	}
 
 	//Move the plane up or down
 	public void move(int step) {
-		playerRow += step;
-		
-		// Collect training data if enabled - only for UP/DOWN actions
-		if (!auto && collectingData && trainingWriter != null && step != 0) {
-			double[] gameState = sampleHorizon();
-			StringBuilder row = new StringBuilder();
-			for (int i = 0; i < gameState.length; i++) {
-				row.append(gameState[i]);
-				if (i < gameState.length - 1) row.append(",");
+		synchronized (sim) {
+			if (!auto && onlineTrainer != null) {
+				onlineTrainer.add(sim, step); //What the player saw when choosing the move, as the autopilot will
+			}
+			
+			// Collect training data if enabled - only for UP/DOWN actions
+			// The state before the move is recorded, as the autopilot sees it and as ExpertDataGenerator labels it
+			// The row is queued and written out in batches off the EDT
+			if (!auto && collectingData && recorder != null && step != 0) {
+				recorder.record(sim, step);
 			}
-			row.append(",").append((double) playerRow / MODEL_HEIGHT); // Player position
-			row.append(",").append(step); // Action taken (only -1 or 1)
-			trainingWriter.println(row.toString());
-			trainingWriter.flush();
+			sim.move(step);
 		}
 	}
 	
@@ -184,15 +216,14 @@ public class GameView extends JPanel implements ActionListener{
 	 * AUTOPILOT!
 	 * ----------
 	 * The following implementation randomly picks a -1, 0, 1 to control the plane. You 
-	 * should plug the trained neural network in here. This method is called by the timer
-	 * every TIMER_INTERVAL units of time from actionPerformed(). There are other ways of
+	 * should plug the trained neural network in here. This method is called by the game loop
+	 * every TIMER_INTERVAL units of time from tick(). There are other ways of
 	 * wiring your neural network into the application, but this way might be the easiest. 
 	 *  
 	 */
 	private void autoMove() {
 		if (neuralNetwork != null && neuralNetwork.isReady()) {
-			double[] gameState = createGameState();
-			int action = neuralNetwork.predict(gameState);
+			int action = neuralNetwork.decide(sim); //Builds the input in whatever encoding the network uses
 			move(action);
 		} else {
 			move(current().nextInt(-1, 2)); //Move -1 (up), 0 (nowhere), 1 (down)
@@ -200,17 +231,20 @@ public class GameView extends JPanel implements ActionListener{
 	}
 
 	
-	//Called every second by the timer 
-	public void actionPerformed(ActionEvent e) {
-		time++; //Update our timer
-		this.repaint(); //Repaint the cavern
-		
-		//Update the next index to generate
-		index++;
-		index = (index == MODEL_WIDTH) ? 0 : index;
-		
-		generateNext(); //Generate the next part of the cave
-		if (auto) autoMove();
+	/*
+	 * Called every TIMER_INTERVAL ms by the game loop thread, however long
+	 * painting takes. The collision check is part of the tick, so a crash
+	 * can never be missed because Swing merged or skipped a repaint.
+	 */
+	public boolean tick() {
+		boolean alive;
+		synchronized (sim) {
+			previousRow = sim.getPlayerRow();
+			sim.advance(); //Update our timer and generate the next part of the cave
+			if (auto) autoMove();
+			alive = !sim.checkCollision(); //Crash...
+		}
+		if (!alive) saveReplay();
 		
 		/*
 		 * Use something like the following to extract training data.
@@ -222,26 +256,52 @@ public class GameView extends JPanel implements ActionListener{
 		 * arithmetic as shown below. Alternatively, add a key stroke 
 		 * to fire an event that starts the sampling.
 		 */
-		if (time % 10 == 0) {
+		if (sim.getTime() % 10 == 0) {
 			/*
 			 * double[] trainingRow = sample();
 			 * System.out.println(Arrays.toString(trainingRow));
 			 */
 		}
+		return alive;
+	}
+	
+	//Called by the game loop thread at most FRAME_RATE times a second
+	public void render(double alpha) {
+		this.alpha = alpha;
+		repaint();
+	}
+	
+	/*
+	 * Writes the game that has just ended to REPLAY_DIR, so the crash can
+	 * be played again with ReplayRunner.
+	 */
+	private void saveReplay() {
+		var replay = sim.getReplay();
+		if (replay == null) return;
+		
+		var name = (auto ? "autopilot-" : "manual-")
+				+ LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".replay";
+		try {
+			replay.write(Paths.get(REPLAY_DIR, name));
+			System.out.println("Replay saved to " + REPLAY_DIR + "/" + name + " (" + replay + ")");
+		} catch (IOException ex) {
+			System.err.println("Failed to save replay: " + ex.getMessage());
+		}
 	}
 	
 	// Simple data collection toggle
 	public void toggleDataCollection() {
 		if (collectingData) {
-			if (trainingWriter != null) {
-				trainingWriter.close();
-				trainingWriter = null;
+			if (recorder != null) {
+				recorder.close(); //Writes out anything still queued
+				System.out.println(recorder);
+				recorder = null;
 			}
 			collectingData = false;
 			System.out.println("Data collection stopped");
 		} else {
 			try {
-				trainingWriter = new PrintWriter(new FileWriter("resources/training_data.csv", true));
+				recorder = new TrainingRecorder("resources/training_data.csv");
 				collectingData = true;
 				System.out.println("Data collection started");
 			} catch (IOException ex) {
@@ -250,30 +310,86 @@ public class GameView extends JPanel implements ActionListener{
 		}
 	}
 	
-	// Train neural network
+	/*
+	 * Trains a copy of the flying network in the background. The game never
+	 * sees the network while it is being trained: the result is saved to
+	 * the network file and the watcher swaps it in from there, mid-game.
+	 * Pressing N again cancels the run after its current epoch. It saves
+	 * its best network, if any epoch finished, and leaves a checkpoint
+	 * that the next run carries on from.
+	 */
 	public void trainNeuralNetwork() {
+		if (trainer != null && trainer.isAlive()) {
+			trainingController.cancelTraining();
+			System.out.println("Cancelling training after the current epoch - the best network so far is saved, if there is one yet");
+			return;
+		}
 		if (collectingData) {
 			System.out.println("Stop data collection first (press T)");
 			return;
 		}
+		if (onlineTrainer != null || (onlineStopper != null && onlineStopper.isAlive())) {
+			System.out.println("Stop online learning first (press O)");
+			return;
+		}
 		
-		new Thread(() -> {
+		var current = neuralNetwork.getNetwork();
+		var controller = current == null ? new NeuralNetworkController() : new NeuralNetworkController(current);
+		trainingController = controller;
+		trainer = new Thread(() -> {
 			try {
-				neuralNetwork.trainNetwork();
-				System.out.println("Training completed! Press A for autopilot.");
+				controller.trainNetwork();
+				System.out.println("Training completed! The new network takes over as soon as it is loaded.");
 			} catch (Exception ex) {
 				System.err.println("Training failed: " + ex.getMessage());
 			}
-		}).start();
+		}, "trainer");
+		trainer.setDaemon(true);
+		trainer.start();
 	}
 	
-	// Toggle autopilot
+	/*
+	 * Starts or stops learning from manual play as it happens. The network
+	 * carries on from the flying one (or a new one) and the autopilot picks
+	 * up the new weights every couple of seconds. Stopping saves it, in the
+	 * background like a training run, so the game does not wait for the
+	 * trainer's last step or the disk.
+	 */
+	public void toggleOnlineLearning() {
+		if (onlineTrainer != null) {
+			var stopping = onlineTrainer;
+			onlineTrainer = null; //No more moves go to it from here
+			onlineStopper = new Thread(() -> {
+				stopping.stop();
+				System.out.println(stopping);
+				neuralNetwork.saveNetwork();
+				System.out.println("Online learning stopped");
+			}, "online-trainer-stop");
+			onlineStopper.setDaemon(true);
+			onlineStopper.start();
+			return;
+		}
+		if (onlineStopper != null && onlineStopper.isAlive()) {
+			System.out.println("Wait for online learning to finish saving first");
+			return;
+		}
+		if (trainer != null && trainer.isAlive()) {
+			System.out.println("Wait for training to finish first");
+			return;
+		}
+		if (!neuralNetwork.isReady()) neuralNetwork.createNetwork();
+		onlineTrainer = new OnlineTrainer(neuralNetwork, REPLAY_CAPACITY);
+		onlineTrainer.start();
+		System.out.println("Online learning started - fly manually and the network learns from every move");
+	}
+	
+	// Toggle autopilot, the network is already loaded (or loading) in the background
 	public void toggleAutopilot() {
 		if (auto) {
 			auto = false;
 			System.out.println("Manual mode");
 		} else {
-			if (neuralNetwork.loadNetwork()) {
+			if (neuralNetwork.isReady()) {
 				auto = true;
 				System.out.println("Autopilot mode");
 			} else {
@@ -303,91 +419,37 @@ public class GameView extends JPanel implements ActionListener{
 	 *  
 	 */
 	public double[] sample() {
-		var vector = new double[MODEL_WIDTH * MODEL_HEIGHT];
-		var index = 0;
-		
-		for (byte[] bm : model) {
-			for (byte b : bm) {
-				vector[index] = b;
-				index++;
-			}
+		synchronized (sim) {
+			return sim.sample();
 		}
-		return vector;
 	}
 	
 	// Sample horizon (10 columns ahead) - for training data collection
 	public double[] sampleHorizon() {
-		int horizonColumns = 10;
-		double[] vector = new double[horizonColumns * MODEL_HEIGHT];
-		int vectorIndex = 0;
-		
-		for (int col = PLAYER_COLUMN + 1; col < Math.min(PLAYER_COLUMN + horizonColumns + 1, MODEL_WIDTH); col++) {
-			for (int row = 0; row < MODEL_HEIGHT; row++) {
-				vector[vectorIndex] = (double) model.get(col)[row];
-				vectorIndex++;
-			}
+		synchronized (sim) {
+			return sim.sampleHorizon();
 		}
-		return vector;
 	}
 	
 	// Sample simplified horizon (3 columns ahead) - for neural network prediction
 	public double[] sampleSimplifiedHorizon() {
-		int horizonColumns = 3;
-		double[] vector = new double[horizonColumns * MODEL_HEIGHT];
-		int vectorIndex = 0;
-		
-		for (int col = PLAYER_COLUMN + 1; col < Math.min(PLAYER_COLUMN + horizonColumns + 1, MODEL_WIDTH); col++) {
-			for (int row = 0; row < MODEL_HEIGHT; row++) {
-				vector[vectorIndex] = (double) model.get(col)[row];
-				vectorIndex++;
-			}
+		synchronized (sim) {
+			return sim.sampleSimplifiedHorizon();
 		}
-		return vector;
-	}
-	
-	// Create simplified game state for neural network (61 inputs total)
-	private double[] createGameState() {
-		double[] horizon = sampleSimplifiedHorizon(); // 3 columns = 60 values
-		double[] gameState = new double[horizon.length + 1]; // 60 + 1 = 61 total
-		
-		System.arraycopy(horizon, 0, gameState, 0, horizon.length);
-		gameState[horizon.length] = (double) playerRow / MODEL_HEIGHT; // Normalized player position
-		
-		return gameState;
 	}
 	
 	
-	/*
-	 * Generate the next layer of the cavern. Use the linked list to
-	 * move the current head element to the tail and then randomly
-	 * decide whether to increase or decrease the cavern. 
-	 */
-	private void generateNext() {
-		var next = model.pollFirst(); 
-		model.addLast(next); //Move the head to the tail
-		Arrays.fill(next, ONE_SET); //Fill everything in
-		
-		
-		//Flip a coin to determine if we could grow or shrink the cave
-		var minspace = 4; //Smaller values will create a cave with smaller spaces
-		prevTop += current().nextBoolean() ? 1 : -1; 
-		prevBot += current().nextBoolean() ? 1 : -1;
-		prevTop = max(MIN_TOP, min(prevTop, prevBot - minspace)); 		
-		prevBot = min(MIN_BOTTOM, max(prevBot, prevTop + minspace));
-
-		//Fill in the array with the carved area
-		Arrays.fill(next, prevTop, prevBot, ZERO_SET);
-	}
-
-	
 	/*
 	 * Resets and restarts the game when the "S" key is pressed
 	 */
 	public void reset() {
-		model.stream() 		//Zero out the grid
-		     .forEach(n -> Arrays.fill(n, 0, n.length, ZERO_SET));
-		playerRow = 11;		//Centre the plane
-		time = 0; 			//Reset the clock
-		timer.restart();	//Start the animation
+		loop.stop();		//Stop the old game before touching the simulation
+		synchronized (sim) {
+			sim.reset(); 	//Zero out the grid, centre the plane and reset the clock
+			renderer.invalidate();
+			previousRow = sim.getPlayerRow();
+			sim.startReplay();
+		}
+		loop.start();		//Start the animation
 	}
 }
\ No newline at end of file
@@ -54,8 +54,11 @@ public class GameWindow implements KeyListener{
 	 * SPACE:			Stay in same position (binary mode ignores this)
 	 * S:				Resets and restarts the game
 	 * T:				Start/Stop training data collection
-	 * N:				Train neural network (use collected data)
+	 * N:				Train neural network (use collected data), press again to cancel
 	 * A:				Toggle autopilot mode
+	 * F:				Show/hide frame times
+	 * M:				Start/Stop logging metrics (also in jconsole)
+	 * O:				Start/Stop online learning from manual play
 	 * 
 	 */
 	public void keyPressed(KeyEvent e) {
@@ -69,7 +72,7 @@ public class GameWindow implements KeyListener{
 			return;
 		}
 		
-		if (e.getKeyCode() == KeyEvent.VK_N) {	//Press "N" to train neural network
+		if (e.getKeyCode() == KeyEvent.VK_N) {	//Press "N" to train neural network or cancel training
 			view.trainNeuralNetwork();
 			return;
 		}
@@ -79,6 +82,21 @@ public class GameWindow implements KeyListener{
 			return;
 		}
 		
+		if (e.getKeyCode() == KeyEvent.VK_O) {	//Press "O" to toggle online learning
+			view.toggleOnlineLearning();
+			return;
+		}
+		
+		if (e.getKeyCode() == KeyEvent.VK_M) {	//Press "M" to toggle metrics reporting
+			view.toggleMetrics();
+			return;
+		}
+		
+		if (e.getKeyCode() == KeyEvent.VK_F) {	//Press "F" to toggle the frame times
+			view.toggleFrameStats();
+			return;
+		}
+		
 		int step = switch(e.getKeyCode()) {
 			case KeyEvent.VK_UP 	-> -1;		//Press "UP Arrow" 	
 			case KeyEvent.VK_DOWN 	->  1;		//Press "DOWN Arrow" 	
@@ -0,0 +1,58 @@
+package ie.atu.sw;
+
+import static java.util.concurrent.ThreadLocalRandom.current;
+
+/*
+ * Plays games back to back with no GUI and reports how long the plane
+ * survived and how many ticks per second the simulation managed. Uses
+ * the trained network in resources/neural_network.eg if there is one,
+ * otherwise the plane is flown at random. With cacheEntries > 0 the
+ * network's decisions are memoised in a DecisionCache of that size, and
+ * with "table" they are also precompiled into a DecisionTable.
+ * 
+ * Usage: java ie.atu.sw.HeadlessRunner [games] [maxTicks] [cacheEntries] [table]
+ */
+public class HeadlessRunner {
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		long maxTicks = args.length > 1 ? Long.parseLong(args[1]) : 100_000;
+		int cacheEntries = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		boolean table = args.length > 3 && args[3].equals("table");
+
+		var neuralNetwork = new NeuralNetworkController();
+		Pilot pilot;
+		if (neuralNetwork.loadNetwork()) {
+			if (cacheEntries > 0) {
+				neuralNetwork.enableDecisionCache(cacheEntries);
+				if (table) {
+					long start = System.nanoTime();
+					var built = neuralNetwork.precompileDecisions();
+					System.out.println(String.format("Decision table of %d entries built in %.1fs", built.size(), (System.nanoTime() - start) / 1e9));
+				}
+			}
+			pilot = neuralNetwork.toPilot();
+		} else {
+			System.out.println("No trained network found - flying at random");
+			pilot = sim -> current().nextInt(-1, 2);
+		}
+
+		var sim = new Simulation();
+		long totalTicks = 0;
+		long best = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < games; i++) {
+			sim.reset();
+			long survived = sim.run(pilot, maxTicks);
+			totalTicks += survived;
+			best = Math.max(best, survived);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println("Games played: " + games);
+		System.out.println("Mean survival: " + String.format("%.1f", (double) totalTicks / games) + " ticks, best: " + best);
+		System.out.println("Throughput: " + String.format("%.0f", totalTicks / seconds) + " ticks/s, " 
+				+ String.format("%.1f", games / seconds) + " games/s");
+		if (cacheEntries > 0) System.out.println(neuralNetwork.getDecisionStats());
+		System.out.print(Metrics.report());
+	}
+}
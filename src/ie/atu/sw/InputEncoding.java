@@ -0,0 +1,120 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+
+import org.encog.neural.networks.BasicNetwork;
+
+/*
+ * How a game is turned into network inputs. Either way there are some
+ * values for each horizon column ahead of the plane, followed by the
+ * player position (row / MODEL_HEIGHT).
+ *
+ * CELLS is the original input: the 20 raw 0/1 cells of every column.
+ *
+ * GAPS describes each column by its open gap instead, in 4 values:
+ *   gap top / MODEL_HEIGHT			first open row
+ *   gap bottom / MODEL_HEIGHT		one past the last open row
+ *   (gap centre - row) / MODEL_HEIGHT	how far the middle of the gap is below the plane
+ *   clearance / MODEL_HEIGHT			rows between the plane and the nearer wall, negative inside a wall
+ * so three columns are 13 inputs rather than 61. Simulation keeps the
+ * gap of every column as it scrolls in, so the features cost nothing
+ * to build per tick.
+ *
+ * The encoding a network was trained with is stored as a property of
+ * the network and so travels with it in the .eg file. Networks without
+ * the property are CELLS networks.
+ */
+public enum InputEncoding {
+	CELLS(MODEL_HEIGHT),
+	GAPS(4);
+
+	static final String PROPERTY = "input.encoding";
+
+	private final int valuesPerColumn;
+
+	private InputEncoding(int valuesPerColumn) {
+		this.valuesPerColumn = valuesPerColumn;
+	}
+
+	public int getValuesPerColumn() {
+		return valuesPerColumn;
+	}
+
+	//Network inputs for a horizon of the given number of columns
+	public int inputSize(int columns) {
+		return columns * valuesPerColumn + 1;
+	}
+
+	//Horizon columns seen by a network with the given number of inputs
+	public int columns(int inputSize) {
+		return (inputSize - 1) / valuesPerColumn;
+	}
+
+	//Writes the inputs for the current game into dst and returns it
+	public double[] encode(Simulation sim, double[] dst, int columns) {
+		return this == GAPS ? sim.createGapFeatures(dst, columns) : sim.createGameState(dst, columns);
+	}
+
+	public static InputEncoding of(BasicNetwork network) {
+		var name = network.getPropertyString(PROPERTY);
+		return name == null ? CELLS : valueOf(name);
+	}
+
+	//Records this encoding in the network, so it is saved with it
+	public void tag(BasicNetwork network) {
+		network.setProperty(PROPERTY, name());
+	}
+
+	/*
+	 * Finds the open gap of a column of MODEL_HEIGHT cells starting at
+	 * offset, i.e. its longest run of open cells. Returns the top row in
+	 * the low byte and one past the bottom row in the next byte. A column
+	 * with no open cells has an empty gap at row 0.
+	 */
+	static int findGap(byte[] cells, int offset) {
+		int bestTop = 0, bestBottom = 0;
+		int row = 0;
+		while (row < MODEL_HEIGHT) {
+			if (cells[offset + row] != 0) {
+				row++;
+				continue;
+			}
+			int top = row;
+			while (row < MODEL_HEIGHT && cells[offset + row] == 0) row++;
+			if (row - top > bestBottom - bestTop) {
+				bestTop = top;
+				bestBottom = row;
+			}
+		}
+		return bestTop | bestBottom << 8;
+	}
+
+	//The same for a column packed into a bit mask, bit r = row r, as in TrainingData
+	static int findGap(int walls) {
+		int bestTop = 0, bestBottom = 0;
+		int row = 0;
+		while (row < MODEL_HEIGHT) {
+			if ((walls >>> row & 1) != 0) {
+				row++;
+				continue;
+			}
+			int top = row;
+			while (row < MODEL_HEIGHT && (walls >>> row & 1) == 0) row++;
+			if (row - top > bestBottom - bestTop) {
+				bestTop = top;
+				bestBottom = row;
+			}
+		}
+		return bestTop | bestBottom << 8;
+	}
+
+	//Writes the 4 GAPS values of one column into dst from index
+	static void writeGap(double[] dst, int index, int top, int bottom, int row) {
+		double centre = (top + bottom - 1) / 2.0;
+		int clearance = Math.min(row - top, bottom - 1 - row);
+		dst[index] = (double) top / MODEL_HEIGHT;
+		dst[index + 1] = (double) bottom / MODEL_HEIGHT;
+		dst[index + 2] = (centre - row) / MODEL_HEIGHT;
+		dst[index + 3] = (double) clearance / MODEL_HEIGHT;
+	}
+}
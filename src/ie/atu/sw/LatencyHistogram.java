@@ -0,0 +1,139 @@
+package ie.atu.sw;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A latency histogram in the style of HdrHistogram: buckets are linear
+ * up to 32ns and after that every power of two is split into 32 equal
+ * sub-buckets, so any value is known to within about 3% with a fixed
+ * ~1200 buckets covering up to 2^40ns (18 minutes). Recording is three
+ * atomic updates (the bucket, a LongAdder for the total and a
+ * LongAccumulator for the max) and no allocation, tens of nanoseconds
+ * with the two nanoTime() calls around it. That is nothing next to a
+ * tick or an epoch, but a good part of one forward pass, so hot paths
+ * like predict() only time a sample of their calls.
+ *
+ * Like LongAdder, the counts are striped: each thread increments one of
+ * several copies of the bucket array, picked by its thread id, so threads
+ * timing the same thing at the same time (e.g. BatchEvaluator's workers)
+ * rarely touch the same cache line. Reading adds the stripes together.
+ *
+ * Readers take a Snapshot, which is cumulative; subtract an earlier one
+ * with since() to get the values for an interval.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS 	= 5;
+	private static final int SUB_COUNT 	= 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS 	= (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+	private static final int STRIPES 	= Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+	private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < STRIPES; i++) stripes[i] = new AtomicLongArray(BUCKETS);
+	}
+
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)].incrementAndGet(bucket(nanos));
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	//Records the time since start, a System.nanoTime() reading
+	public void recordSince(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	public Snapshot snapshot() {
+		var counts = new long[BUCKETS];
+		for (var stripe : stripes) {
+			for (int i = 0; i < BUCKETS; i++) counts[i] += stripe.get(i);
+		}
+		return new Snapshot(counts, total.sum(), max.get());
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_COUNT) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+		int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_COUNT;
+		return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+	}
+
+	//The largest value that falls in the given bucket
+	static long highestValue(int bucket) {
+		if (bucket < SUB_COUNT) return bucket;
+		int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+		int sub = bucket % SUB_COUNT;
+		long low = (long) (SUB_COUNT + sub) << (exponent - SUB_BITS);
+		return low + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	/*
+	 * The counts at one moment. Percentiles are the top of the bucket the
+	 * value fell in, so they are never understated by more than the ~3%
+	 * bucket width.
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long total;
+		private final long max; //All-time for a cumulative snapshot, bucket precision for an interval
+
+		private Snapshot(long[] counts, long total, long max) {
+			this.counts = counts;
+			long count = 0;
+			for (long c : counts) count += c;
+			this.count = count;
+			this.total = total;
+			this.max = max;
+		}
+
+		//What was recorded between the earlier snapshot and this one
+		public Snapshot since(Snapshot earlier) {
+			var counts = new long[BUCKETS];
+			int top = -1;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = this.counts[i] - earlier.counts[i];
+				if (counts[i] > 0) top = i;
+			}
+			return new Snapshot(counts, total - earlier.total, top < 0 ? 0 : Math.min(max, highestValue(top)));
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return count == 0 ? 0 : (double) total / count;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		//The value that p percent (0 to 100) of the recordings were at or below
+		public long percentile(double p) {
+			if (count == 0) return 0;
+			long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank) return Math.min(highestValue(i), max);
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus", count, getMean() / 1e3,
+					percentile(50) / 1e3, percentile(99) / 1e3, max / 1e3);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package ie.atu.sw;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+/*
+ * Every counter, gauge and latency histogram in the application, by
+ * name. The code being measured looks its metrics up once and keeps
+ * them in a static final field, so recording is just a LongAdder or
+ * LatencyHistogram update with no map lookup and no locking:
+ *
+ *   private static final LatencyHistogram TICKS = Metrics.histogram("game.tick");
+ *   ...
+ *   long start = System.nanoTime();
+ *   ...
+ *   TICKS.recordSince(start);
+ *
+ * The metrics in use:
+ *   game.tick			histogram	game loop tick, including the autopilot
+ *   game.ticks.dropped	counter		ticks skipped by the game loop to catch up
+ *   game.render			histogram	paintComponent()
+ *   autopilot.inference	histogram	one forward pass in predict(), one call in 16 is timed
+ *   autopilot.decisions	counter		decisions made by the network (not the decision cache)
+ *   recorder.depth		gauge		samples queued in the open training data recorder, 0 if none is open
+ *   recorder.dropped		counter		samples dropped because the recorder queue was full
+ *   training.epoch		histogram	one training epoch
+ *   evolution.generation	histogram	one generation of EvolutionTrainer, scoring and validation
+ *
+ * Everything can be read through JMX (jconsole, bean ie.atu.sw:type=Metrics)
+ * once registerMBean() has been called, or logged every few seconds by
+ * a MetricsReporter.
+ */
+public class Metrics {
+	private static final Map<String, Object> METRICS = new ConcurrentSkipListMap<>(); //Sorted for reports
+
+	private Metrics() {
+	}
+
+	public static LongAdder counter(String name) {
+		return get(name, LongAdder.class);
+	}
+
+	public static LatencyHistogram histogram(String name) {
+		return get(name, LatencyHistogram.class);
+	}
+
+	//Registers a value that is read when reported, replacing any earlier gauge of the same name
+	public static void gauge(String name, LongSupplier value) {
+		METRICS.put(name, value);
+	}
+
+	private static <T> T get(String name, Class<T> type) {
+		var metric = METRICS.computeIfAbsent(name, n -> type == LongAdder.class ? new LongAdder() : new LatencyHistogram());
+		if (!type.isInstance(metric)) throw new IllegalArgumentException(name + " is not a " + type.getSimpleName());
+		return type.cast(metric);
+	}
+
+	//Every metric and its current value: a LongAdder, a LatencyHistogram or a LongSupplier
+	static Map<String, Object> all() {
+		return METRICS;
+	}
+
+	/*
+	 * One line per metric with its all-time values, for the end of a
+	 * headless run. Histograms that were never used are left out.
+	 */
+	public static String report() {
+		var sb = new StringBuilder();
+		for (var e : METRICS.entrySet()) {
+			var metric = e.getValue();
+			if (metric instanceof LatencyHistogram histogram) {
+				var snapshot = histogram.snapshot();
+				if (snapshot.getCount() == 0) continue;
+				sb.append(e.getKey()).append(": ").append(snapshot);
+			} else {
+				sb.append(e.getKey()).append(": ").append(value(metric));
+			}
+			sb.append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+
+	static long value(Object metric) {
+		return metric instanceof LongAdder counter ? counter.sum() : ((LongSupplier) metric).getAsLong();
+	}
+
+	/*
+	 * Publishes the metrics as the JMX bean ie.atu.sw:type=Metrics. Counters
+	 * and gauges are attributes of their own name. Each histogram has
+	 * <name>.count, .mean, .p50, .p90, .p99 and .max attributes, with the
+	 * times in microseconds. Safe to call more than once.
+	 */
+	public static void registerMBean() {
+		try {
+			var server = ManagementFactory.getPlatformMBeanServer();
+			var name = new ObjectName("ie.atu.sw:type=Metrics");
+			if (!server.isRegistered(name)) server.registerMBean(new Bean(), name);
+		} catch (JMException e) {
+			System.err.println("Failed to register the metrics with JMX: " + e.getMessage());
+		}
+	}
+
+	//Built from the registry on every request, so metrics created later show up too
+	private static class Bean implements DynamicMBean {
+		private static final String[] STATS = {"count", "mean", "p50", "p90", "p99", "max"};
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			var metric = METRICS.get(attribute);
+			if (metric != null && !(metric instanceof LatencyHistogram)) return value(metric);
+
+			int dot = attribute.lastIndexOf('.');
+			if (dot > 0 && METRICS.get(attribute.substring(0, dot)) instanceof LatencyHistogram histogram) {
+				var snapshot = histogram.snapshot();
+				return switch (attribute.substring(dot + 1)) {
+					case "count" -> (double) snapshot.getCount();
+					case "mean" -> snapshot.getMean() / 1e3;
+					case "p50" 	-> snapshot.percentile(50) / 1e3;
+					case "p90" 	-> snapshot.percentile(90) / 1e3;
+					case "p99" 	-> snapshot.percentile(99) / 1e3;
+					case "max" 	-> snapshot.getMax() / 1e3;
+					default 	-> throw new AttributeNotFoundException(attribute);
+				};
+			}
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			var list = new AttributeList();
+			for (var attribute : attributes) {
+				try {
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				} catch (AttributeNotFoundException e) {
+					//Left out, as the interface allows
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			var attributes = new ArrayList<MBeanAttributeInfo>();
+			for (var e : METRICS.entrySet()) {
+				if (e.getValue() instanceof LatencyHistogram) {
+					for (var stat : STATS) {
+						attributes.add(new MBeanAttributeInfo(e.getKey() + "." + stat, "double",
+								stat.equals("count") ? "Recordings" : "Microseconds", true, false, false));
+					}
+				} else {
+					attributes.add(new MBeanAttributeInfo(e.getKey(), "long", e.getKey(), true, false, false));
+				}
+			}
+			return new MBeanInfo(Metrics.class.getName(), "Game and autopilot metrics",
+					attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException(attribute.getName() + " is read only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String action, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException(action);
+		}
+	}
+}
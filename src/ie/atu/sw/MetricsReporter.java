@@ -0,0 +1,134 @@
+package ie.atu.sw;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Reports the metrics every few seconds on a background thread: one log
+ * line with the busiest numbers, and optionally every metric appended to
+ * a CSV file in long format, one row per metric per interval:
+ *
+ *   time,metric,count,rate,mean_us,p50_us,p90_us,p99_us,max_us,value
+ *
+ * Counts, rates and latencies cover just the interval, not all time, so
+ * a slow patch shows up rather than being averaged away. Gauges have
+ * their current value in the value column.
+ */
+public class MetricsReporter implements Runnable {
+	private static final String CSV_HEADER = "time,metric,count,rate,mean_us,p50_us,p90_us,p99_us,max_us,value";
+
+	private final long intervalMillis;
+	private final Path csv; //null = log only
+
+	private volatile boolean running;
+	private Thread thread;
+	private final Map<String, LatencyHistogram.Snapshot> lastHistograms = new HashMap<>();
+	private final Map<String, Long> lastCounters = new HashMap<>();
+	private long lastTime;
+
+	public MetricsReporter(long intervalMillis, Path csv) {
+		this.intervalMillis = intervalMillis;
+		this.csv = csv;
+	}
+
+	public synchronized void start() {
+		stop();
+		running = true;
+		thread = new Thread(this, "metrics-reporter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	//Stops and writes out one last interval
+	public synchronized void stop() {
+		running = false;
+		if (thread == null) return;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public void run() {
+		lastTime = System.currentTimeMillis();
+		snapshot(lastTime, null); //A baseline, so the first interval starts now
+		try {
+			while (running) {
+				try {
+					Thread.sleep(intervalMillis);
+				} catch (InterruptedException e) {
+					running = false; //Report what has happened since the last interval and stop
+				}
+				report();
+			}
+		} catch (IOException e) {
+			System.err.println("Metrics reporting failed: " + e.getMessage());
+		}
+	}
+
+	private void report() throws IOException {
+		long now = System.currentTimeMillis();
+		var rows = new StringBuilder();
+		var line = snapshot(now, rows);
+		lastTime = now;
+		System.out.println("[metrics] " + line);
+
+		if (csv == null) return;
+		boolean header = !Files.exists(csv);
+		try (BufferedWriter out = Files.newBufferedWriter(csv, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			if (header) out.write(CSV_HEADER + System.lineSeparator());
+			out.write(rows.toString());
+		}
+	}
+
+	/*
+	 * Works out every metric over the interval since the last call, adds
+	 * a CSV row for each to rows (if not null) and returns the log line.
+	 */
+	private String snapshot(long now, StringBuilder rows) {
+		double seconds = Math.max(1, now - lastTime) / 1000.0;
+		var line = new StringBuilder();
+		for (var e : Metrics.all().entrySet()) {
+			var name = e.getKey();
+			var metric = e.getValue();
+			if (metric instanceof LatencyHistogram histogram) {
+				var snapshot = histogram.snapshot();
+				var previous = lastHistograms.put(name, snapshot);
+				if (rows == null || previous == null) continue;
+				var interval = snapshot.since(previous);
+				if (interval.getCount() == 0) continue;
+				rows.append(String.format("%d,%s,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f,%n", now, name, interval.getCount(),
+						interval.getCount() / seconds, interval.getMean() / 1e3, interval.percentile(50) / 1e3,
+						interval.percentile(90) / 1e3, interval.percentile(99) / 1e3, interval.getMax() / 1e3));
+				line.append(String.format("%s p50=%.1fus p99=%.1fus (%.0f/s)  ", name, interval.percentile(50) / 1e3,
+						interval.percentile(99) / 1e3, interval.getCount() / seconds));
+			} else if (metric instanceof LongAdder counter) {
+				long value = counter.sum();
+				Long previous = lastCounters.put(name, value);
+				if (rows == null) continue;
+				long count = value - (previous == null ? 0 : previous);
+				rows.append(String.format("%d,%s,%d,%.1f,,,,,,%n", now, name, count, count / seconds));
+				if (count > 0) line.append(String.format("%s=%d  ", name, count));
+			} else if (rows != null) {
+				long value = Metrics.value(metric);
+				rows.append(String.format("%d,%s,,,,,,,,%d%n", now, name, value));
+				line.append(String.format("%s=%d  ", name, value));
+			}
+		}
+		return line.toString().trim();
+	}
+}
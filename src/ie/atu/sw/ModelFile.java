@@ -0,0 +1,284 @@
+package ie.atu.sw;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import org.encog.engine.network.activation.ActivationElliott;
+import org.encog.engine.network.activation.ActivationElliottSymmetric;
+import org.encog.engine.network.activation.ActivationFunction;
+import org.encog.engine.network.activation.ActivationLinear;
+import org.encog.engine.network.activation.ActivationReLU;
+import org.encog.engine.network.activation.ActivationSigmoid;
+import org.encog.engine.network.activation.ActivationSoftMax;
+import org.encog.engine.network.activation.ActivationTANH;
+import org.encog.neural.networks.BasicNetwork;
+import org.encog.neural.networks.layers.BasicLayer;
+import org.encog.persist.EncogDirectoryPersistence;
+
+/*
+ * Our own binary model format (.nnm), a much smaller and faster
+ * alternative to Encog's .eg text files. Loading one is a memory mapped
+ * read of a header and one bulk copy of the weights, with no text
+ * parsing and no reflection, so a network is ready to fly in about a
+ * millisecond. At around 40KB for the default network, many versions
+ * can sit side by side in resources/models/.
+ *
+ * File layout, all little-endian:
+ *   int     magic "NNM1"
+ *   short   version
+ *   short   layers, counting from the input layer
+ *   int     weights
+ *   int     properties
+ *   then per layer:
+ *     int     neurons, not counting the bias
+ *     byte    1 if the layer has a bias neuron
+ *     byte    activation id, see ACTIVATIONS
+ *     byte    activation parameters
+ *     byte    reserved
+ *     double  bias activation
+ *     double  dropout rate
+ *     double  each activation parameter
+ *   then per property (e.g. the input encoding):
+ *     short + UTF-8 bytes   key
+ *     short + UTF-8 bytes   value
+ *   padding up to a multiple of 8 bytes
+ *   double  the weights, in Encog's FlatNetwork order
+ *   int     CRC32 of everything before it
+ *
+ * Version 1 files, whose CRC only covered the weights, can still be read.
+ *
+ * The activation of layer l is the one applied to its own neurons, so
+ * the input layer's is never used (Encog keeps one anyway). Only
+ * feed forward networks can be stored, which is all this project makes.
+ */
+public class ModelFile {
+	public static final String EXTENSION = ".nnm";
+
+	private static final int MAGIC 		= 0x314D4E4E; //"NNM1" read little-endian
+	private static final short VERSION 	= 2;
+	private static final short WEIGHTS_CRC_VERSION = 1; //The last version to checksum only the weights
+
+	//The position of an activation in this list is its id in the file, so only ever append
+	private static final List<Supplier<ActivationFunction>> ACTIVATIONS = List.of(
+			ActivationLinear::new,
+			ActivationSigmoid::new,
+			ActivationTANH::new,
+			ActivationReLU::new,
+			ActivationSoftMax::new,
+			ActivationElliott::new,
+			ActivationElliottSymmetric::new);
+
+	private ModelFile() {
+	}
+
+	//True if the file starts with the .nnm magic number, whatever it is called
+	public static boolean isModelFile(Path file) {
+		try (var channel = FileChannel.open(file)) {
+			var magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while (magic.hasRemaining() && channel.read(magic) >= 0);
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public static void write(BasicNetwork network, Path file) throws IOException {
+		var bytes = toBytes(network);
+
+		//Written beside the target and renamed, so a reader never sees half a model
+		if (file.getParent() != null) Files.createDirectories(file.getParent());
+		var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.write(tmp, bytes);
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	//The whole file as bytes, e.g. to embed a model in another file
+	static byte[] toBytes(BasicNetwork network) {
+		var flat = network.getFlat();
+		for (int context : flat.getLayerContextCount()) {
+			if (context != 0) throw new IllegalArgumentException("Recurrent networks cannot be stored in " + EXTENSION + " files");
+		}
+		int layers = flat.getLayerCounts().length;
+		var dropout = flat.getLayerDropoutRates();
+		var properties = network.getProperties();
+		var weights = flat.getWeights();
+
+		//Header and layers first, to find out where the weights start
+		var head = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		head.putInt(MAGIC);
+		head.putShort(VERSION);
+		head.putShort((short) layers);
+		head.putInt(weights.length);
+		head.putInt(properties.size());
+		for (int l = 0; l < layers; l++) {
+			int e = layers - 1 - l; //Encog numbers the layers from the output
+			var activation = flat.getActivationFunctions()[e];
+			var params = activation.getParams();
+			head.putInt(flat.getLayerFeedCounts()[e]);
+			head.put((byte) (flat.getLayerCounts()[e] > flat.getLayerFeedCounts()[e] ? 1 : 0));
+			head.put((byte) activationId(activation));
+			head.put((byte) params.length);
+			head.put((byte) 0);
+			head.putDouble(flat.getBiasActivation()[e]);
+			head.putDouble(dropout.length > e ? dropout[e] : 0);
+			for (double param : params) head.putDouble(param);
+		}
+		for (var property : properties.entrySet()) {
+			putString(head, property.getKey());
+			putString(head, property.getValue());
+		}
+		while (head.position() % 8 != 0) head.put((byte) 0);
+
+		var buffer = ByteBuffer.allocate(head.position() + weights.length * 8 + 4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(head.flip());
+		int weightsStart = buffer.position();
+		buffer.asDoubleBuffer().put(weights);
+		buffer.position(weightsStart + weights.length * 8);
+		buffer.putInt(checksum(buffer, 0, buffer.position()));
+		return buffer.array();
+	}
+
+	public static BasicNetwork read(Path file) throws IOException {
+		try (var channel = FileChannel.open(file)) {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+		}
+	}
+
+	/*
+	 * Reads a model from the rest of the buffer, which must hold exactly
+	 * one. The file is only used to name it in error messages.
+	 */
+	static BasicNetwork read(ByteBuffer buffer, Object file) throws IOException {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			int start = buffer.position();
+			if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) throw new IOException(file + " is not a " + EXTENSION + " model");
+			int version = buffer.getShort();
+			if (version != VERSION && version != WEIGHTS_CRC_VERSION) throw new IOException(file + " is model version " + version + ", expected " + VERSION);
+			int end = buffer.limit() - 4;
+			if (version == VERSION && buffer.getInt(end) != checksum(buffer, start, end - start)) {
+				throw new IOException(file + " is corrupt, it does not match its checksum");
+			}
+
+			int layers = buffer.getShort();
+			int weightCount = buffer.getInt();
+			int propertyCount = buffer.getInt();
+
+			var network = new BasicNetwork();
+			for (int l = 0; l < layers; l++) {
+				int neurons = buffer.getInt();
+				boolean bias = buffer.get() != 0;
+				var activation = activation(buffer.get(), file);
+				int params = buffer.get();
+				buffer.get();
+				double biasActivation = buffer.getDouble();
+				double dropout = buffer.getDouble();
+				for (int p = 0; p < params; p++) activation.setParam(p, buffer.getDouble());
+
+				var layer = new BasicLayer(activation, bias, neurons, dropout);
+				layer.setBiasActivation(biasActivation);
+				network.addLayer(layer);
+			}
+			network.getStructure().finalizeStructure();
+			for (int p = 0; p < propertyCount; p++) {
+				network.setProperty(getString(buffer), getString(buffer));
+			}
+			while (buffer.position() % 8 != 0) buffer.get();
+
+			var weights = network.getFlat().getWeights();
+			if (weights.length != weightCount || buffer.remaining() != weightCount * 8 + 4) {
+				throw new IOException(file + " does not hold the weights its layers need");
+			}
+			int weightsStart = buffer.position();
+			buffer.asDoubleBuffer().get(weights);
+			buffer.position(weightsStart + weightCount * 8);
+			if (version == WEIGHTS_CRC_VERSION && buffer.getInt() != checksum(buffer, weightsStart, weightCount * 8)) {
+				throw new IOException(file + " is corrupt, the weights do not match their checksum");
+			}
+			return network;
+		} catch (RuntimeException e) {
+			throw new IOException(file + " is not a valid " + EXTENSION + " model: " + e, e);
+		}
+	}
+
+	//Reads a network saved in either format, telling them apart by the magic number
+	public static BasicNetwork readAny(Path file) throws IOException {
+		if (isModelFile(file)) return read(file);
+		return (BasicNetwork) EncogDirectoryPersistence.loadObject(file.toFile());
+	}
+
+	//Writes a network in the format its file name asks for, .eg for Encog and anything else for ours
+	public static void writeAny(BasicNetwork network, Path file) throws IOException {
+		if (file.getFileName().toString().endsWith(".eg")) {
+			EncogDirectoryPersistence.saveObject(file.toFile(), network);
+		} else {
+			write(network, file);
+		}
+	}
+
+	static int activationId(ActivationFunction activation) {
+		for (int i = 0; i < ACTIVATIONS.size(); i++) {
+			if (ACTIVATIONS.get(i).get().getClass() == activation.getClass()) return i;
+		}
+		throw new IllegalArgumentException(activation.getClass().getSimpleName() + " cannot be stored in " + EXTENSION + " files");
+	}
+
+	static ActivationFunction activation(int id, Object file) throws IOException {
+		if (id < 0 || id >= ACTIVATIONS.size()) throw new IOException(file + " uses unknown activation " + id);
+		return ACTIVATIONS.get(id).get();
+	}
+
+	static int checksum(ByteBuffer buffer, int from, int length) {
+		var crc = new CRC32();
+		crc.update(buffer.duplicate().position(from).limit(from + length));
+		return (int) crc.getValue();
+	}
+
+	static void putString(ByteBuffer buffer, String s) {
+		var bytes = s.getBytes(StandardCharsets.UTF_8);
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	static String getString(ByteBuffer buffer) {
+		var bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Converts between the formats, e.g. an .eg network into a .nnm model
+	 * and back. The output format follows the output file name.
+	 * Usage: java ie.atu.sw.ModelFile <in.eg|in.nnm> <out.eg|out.nnm>
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: java ie.atu.sw.ModelFile <in.eg|in.nnm> <out.eg|out.nnm>");
+			return;
+		}
+		var in = Paths.get(args[0]);
+		var out = Paths.get(args[1]);
+		long start = System.nanoTime();
+		var network = readAny(in);
+		double readMillis = (System.nanoTime() - start) / 1e6;
+		writeAny(network, out);
+		System.out.println(String.format("%s (%d bytes, read in %.1fms) -> %s (%d bytes)",
+				in, new File(args[0]).length(), readMillis, out, new File(args[1]).length()));
+	}
+}
@@ -0,0 +1,167 @@
+package ie.atu.sw;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.encog.neural.networks.BasicNetwork;
+
+/*
+ * Watches the saved network files (.eg and .nnm) and hands every new
+ * version to a listener. Parsing an .eg file takes long enough to stall
+ * a frame or a tick, so it is done here on a thread of its own and the
+ * listener just swaps the finished network in.
+ *
+ * The files are the same network in different formats, so only the
+ * newest of them that exists is loaded, with ties going to the file
+ * listed first. Either may appear or be replaced while watching: a
+ * .nnm saved after starting on an .eg is picked up, and so is an .eg
+ * copied in by hand over an older .nnm.
+ *
+ * The newest file is loaded once at start() and then whenever a
+ * directory they live in reports a change to one of them. Changes often
+ * come in bursts (a write is a create and several modifies), so nothing
+ * is loaded until the directories have been quiet for SETTLE_MILLIS. A
+ * version with the same name, size and modification time as the last
+ * one loaded is not parsed again, and a file that fails to parse leaves
+ * the last good network in place.
+ */
+public class NetworkWatcher implements Runnable {
+	private static final long SETTLE_MILLIS = 200;
+
+	private final Path[] files;
+	private final Consumer<BasicNetwork> listener;
+
+	private volatile boolean running;
+	private Thread thread;
+	private volatile WatchService watch;
+	private Path loadedFile;
+	private long loadedSize = -1;
+	private long loadedModified = -1;
+	private volatile int loads;
+
+	public NetworkWatcher(Path file, Consumer<BasicNetwork> listener) {
+		this(listener, file);
+	}
+
+	//The files in order of preference when they are as new as each other
+	public NetworkWatcher(Consumer<BasicNetwork> listener, Path... files) {
+		if (files.length == 0) throw new IllegalArgumentException("Nothing to watch");
+		this.files = new Path[files.length];
+		for (int i = 0; i < files.length; i++) this.files[i] = files[i].toAbsolutePath();
+		this.listener = listener;
+	}
+
+	public synchronized void start() {
+		stop();
+		running = true;
+		thread = new Thread(this, "network-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	//Stops watching and waits for any load in progress to finish
+	public synchronized void stop() {
+		running = false;
+		if (thread == null) return;
+		try {
+			var watch = this.watch;
+			if (watch != null) watch.close(); //Wakes the thread from take()
+		} catch (IOException e) {
+			//Closing anyway
+		}
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	//Networks handed to the listener so far
+	public int getLoads() {
+		return loads;
+	}
+
+	@Override
+	public void run() {
+		var dirs = new LinkedHashSet<Path>();
+		for (var file : files) dirs.add(file.getParent());
+		try (var watch = files[0].getFileSystem().newWatchService()) {
+			this.watch = watch;
+			if (!running) return; //Stopped before the watch was there to close
+			for (var dir : dirs) dir.register(watch, ENTRY_CREATE, ENTRY_MODIFY); //Before the first load, so no change is missed
+			load();
+
+			while (running) {
+				var key = watch.take();
+				boolean changed = false;
+				for (var event : key.pollEvents()) {
+					changed |= event.kind() == OVERFLOW || watched((Path) key.watchable(), event.context());
+				}
+				key.reset();
+				if (!changed) continue;
+
+				//Let the writer finish
+				while ((key = watch.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+					key.pollEvents();
+					key.reset();
+				}
+				load();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			//Stopped
+		} catch (IOException e) {
+			System.err.println("Cannot watch " + dirs + ": " + e.getMessage());
+		}
+	}
+
+	private boolean watched(Path dir, Object name) {
+		for (var file : files) {
+			if (file.getParent().equals(dir) && file.getFileName().equals(name)) return true;
+		}
+		return false;
+	}
+
+	private void load() {
+		try {
+			Path file = null;
+			long size = -1, modified = -1;
+			for (var f : files) {
+				if (!Files.exists(f)) continue;
+				var attributes = Files.readAttributes(f, BasicFileAttributes.class);
+				long m = attributes.lastModifiedTime().toMillis();
+				if (file == null || m > modified) {
+					file = f;
+					size = attributes.size();
+					modified = m;
+				}
+			}
+			if (file == null) return;
+			if (file.equals(loadedFile) && size == loadedSize && modified == loadedModified) return;
+
+			long start = System.nanoTime();
+			var network = ModelFile.readAny(file);
+			if (!running) return;
+			listener.accept(network);
+			loadedFile = file;
+			loadedSize = size;
+			loadedModified = modified;
+			loads++;
+			System.out.println(String.format("Neural network loaded from %s in %.0fms", file.getFileName(), (System.nanoTime() - start) / 1e6));
+		} catch (Exception e) {
+			System.err.println("Failed to load network, keeping the old one: " + e.getMessage());
+		}
+	}
+}
@@ -1,119 +1,332 @@
 package ie.atu.sw;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
-import org.encog.ml.data.basic.BasicMLDataSet;
+import java.util.concurrent.atomic.LongAdder;
+import org.encog.mathutil.randomize.generate.MersenneTwisterGenerateRandom;
+import org.encog.ml.data.MLDataSet;
+import org.encog.ml.train.MLTrain;
 import org.encog.neural.networks.BasicNetwork;
 import org.encog.neural.networks.layers.BasicLayer;
 import org.encog.neural.networks.training.propagation.resilient.ResilientPropagation;
+import org.encog.neural.networks.training.propagation.sgd.StochasticGradientDescent;
+import org.encog.neural.networks.training.propagation.sgd.update.AdamUpdate;
+import org.encog.neural.networks.training.propagation.sgd.update.MomentumUpdate;
 import org.encog.persist.EncogDirectoryPersistence;
-import org.encog.ml.data.MLData;
-import org.encog.ml.data.basic.BasicMLData;
 
 public class NeuralNetworkController {
     
     private static final int INPUT_SIZE = 61; // 3 columns × 20 rows + 1 player position  
     private static final int HIDDEN_SIZE = 80; // Reduced for simpler network
     private static final int OUTPUT_SIZE = 2; // Only UP or DOWN
-    private static final double TARGET_ERROR = 0.01; // Achievable target for simpler network
-    private static final int MAX_EPOCHS = 3000;
+    private static final String TRAINING_DATA = "resources/training_data.csv";
+    public static final String NETWORK_FILE = "resources/neural_network.eg";
+    public static final String MODEL_FILE = "resources/neural_network" + ModelFile.EXTENSION; // Same network, binary
+    private static final String MODELS_DIR = "resources/models"; // Every saved version, side by side
+    private static final String CHECKPOINT_FILE = "resources/checkpoints/training" + TrainingCheckpoint.EXTENSION; // An unfinished run
+    private static final LatencyHistogram INFERENCE_TIME = Metrics.histogram("autopilot.inference");
+    private static final int INFERENCE_SAMPLING = 16; // Time one predict() in this many, the timing costs about a tenth of the pass
+    private static final LongAdder DECISIONS = Metrics.counter("autopilot.decisions");
+    private static final LatencyHistogram EPOCH_TIME = Metrics.histogram("training.epoch");
     
-    private BasicNetwork network;
+    /*
+     * Everything predict() needs from one network. A new network gets a new
+     * Model, published with a single volatile write, so a game thread that
+     * reads the field once per decision never mixes two networks, however
+     * the swap and the decision interleave. Nothing in a published Model is
+     * changed afterwards; training works on a clone of the network.
+     */
+    private static final class Model {
+        private final BasicNetwork network;
+        private final BatchForwardPass forward; // Allocation-free copy of the network used by predict(), same outputs as Encog
+        private final InputEncoding encoding; // How the network sees the game
+        private final int columns; // Horizon columns the network sees
+        
+        private Model(BasicNetwork network) {
+            this.network = network;
+            this.forward = new BatchForwardPass(network);
+            this.encoding = InputEncoding.of(network);
+            this.columns = encoding.columns(forward.getInputCount());
+        }
+    }
+    
+    private volatile Model model;
+    private final double[] output = new double[OUTPUT_SIZE];
+    private double[] input = new double[0]; // Reused by decide(), resized to fit the model
+    private double[] batchOutput = new double[0]; // Reused by the batched predict(), resized to fit the batch
+    
+    // Optional memo of decisions by packed horizon, see enableDecisionCache()
+    private DecisionCache decisionCache;
+    private DecisionTable decisionTable;
+    private Model cacheModel; // The model the cached decisions came from
+    private Model tableModel;
+    private long tableHits;
+    
+    // Print every Nth decision, 0 = off. Printing costs far more than deciding, so only for debugging, e.g. -Dautopilot.log=100
+    private int logInterval = Integer.getInteger("autopilot.log", 0);
+    private long decisions; // Counted for sampling and logging, the controller is used by one thread at a time
+    private int lastEpochs; // Epochs run by the last call to train()
+    private volatile boolean cancelled; // Set by cancelTraining(), cleared when train() stops
+    private boolean lastPublished; // Whether the last call to train() swapped in a new network
+    
+    public NeuralNetworkController() {
+    }
+    
+    // Wraps an already trained network, e.g. a per-thread clone for batch evaluation
+    public NeuralNetworkController(BasicNetwork network) {
+        setNetwork(network);
+    }
+    
+    /*
+     * Swaps in a network, from any thread. The network must not be changed
+     * afterwards. Cached decisions are dropped by the next decide() once it
+     * sees the new model.
+     */
+    void setNetwork(BasicNetwork network) {
+        model = new Model(network);
+    }
     
     public void createNetwork() {
-        network = new BasicNetwork();
-        network.addLayer(new BasicLayer(null, true, INPUT_SIZE));
-        network.addLayer(new BasicLayer(null, true, HIDDEN_SIZE)); 
+        createNetwork(new Random().nextInt());
+    }
+    
+    // The same seed always gives the same starting weights
+    public void createNetwork(int seed) {
+        createNetwork(seed, INPUT_SIZE, HIDDEN_SIZE);
+    }
+    
+    // Input size is 20 values per horizon column plus the player position
+    public void createNetwork(int seed, int inputSize, int hiddenSize) {
+        createNetwork(seed, InputEncoding.CELLS, InputEncoding.CELLS.columns(inputSize), hiddenSize);
+    }
+    
+    // A network of the default size in the given encoding
+    public void createNetwork(int seed, InputEncoding encoding) {
+        createNetwork(seed, encoding, TrainingData.DEFAULT_COLUMNS, HIDDEN_SIZE);
+    }
+    
+    // A network that sees the given number of horizon columns in the given encoding
+    public void createNetwork(int seed, InputEncoding encoding, int columns, int hiddenSize) {
+        setNetwork(buildNetwork(seed, encoding, columns, hiddenSize));
+    }
+    
+    private static BasicNetwork buildNetwork(int seed, InputEncoding encoding, int columns, int hiddenSize) {
+        int inputSize = encoding.inputSize(columns);
+        var network = new BasicNetwork();
+        network.addLayer(new BasicLayer(null, true, inputSize));
+        network.addLayer(new BasicLayer(null, true, hiddenSize)); 
         network.addLayer(new BasicLayer(null, false, OUTPUT_SIZE));
         network.getStructure().finalizeStructure();
-        network.reset();
+        network.reset(seed);
+        encoding.tag(network);
         
-        System.out.println("Binary action neural network created: " + INPUT_SIZE + "-" + HIDDEN_SIZE + "-" + OUTPUT_SIZE + " (UP/DOWN only)");
+        System.out.println("Binary action neural network created: " + inputSize + "-" + hiddenSize + "-" + OUTPUT_SIZE + " (UP/DOWN only, " + encoding + " inputs)");
+        return network;
     }
     
     public void trainNetwork() throws IOException {
+        trainNetwork(new TrainingConfig());
+    }
+    
+    public void trainNetwork(TrainingConfig config) throws IOException {
         System.out.println("Loading training data...");
         
-        List<double[]> inputs = new ArrayList<>();
-        List<double[]> outputs = new ArrayList<>();
-        int skippedLines = 0;
-        
-        try (BufferedReader br = new BufferedReader(new FileReader("resources/training_data.csv"))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                
-                // Handle variable length data - take first 60 values + player position + action
-                if (parts.length >= 202) { // Expect full 202 field format
-                    
-                    // Input features: first 60 values (3 columns x 20 rows) + player position
-                    double[] input = new double[INPUT_SIZE];
-                    for (int i = 0; i < 60; i++) { // First 60 are simplified horizon data
-                        input[i] = Double.parseDouble(parts[i]);
-                    }
-                    
-                    // Player position is second-to-last field  
-                    input[60] = Double.parseDouble(parts[parts.length - 2]);
-                    
-                    // Action is last field - skip STAY actions (0)
-                    int action = Integer.parseInt(parts[parts.length - 1]);
-                    if (action == 0) {
-                        skippedLines++;
-                        continue; // Skip STAY actions
-                    }
-                    
-                    double[] output = new double[2];
-                    if (action == -1) output[0] = 1.0;      // UP
-                    else if (action == 1) output[1] = 1.0;  // DOWN
-                    
-                    inputs.add(input);
-                    outputs.add(output);
-                } else {
-                    skippedLines++;
-                }
-            }
-        }
+        TrainingData data = TrainingData.load(Paths.get(TRAINING_DATA));
         
-        System.out.println("Skipped " + skippedLines + " malformed lines");
+        System.out.println("Skipped " + data.getSkipped() + " malformed lines");
         
-        System.out.println("Loaded " + inputs.size() + " training samples");
+        System.out.println("Loaded " + data.size() + " training samples");
         
-        if (inputs.isEmpty()) {
+        if (data.size() == 0) {
             System.err.println("No training data found!");
             return;
         }
         
-        // Shuffle the data for better training
-        Collections.shuffle(inputs);
-        Collections.shuffle(outputs);
+        // Carry on from the checkpoint of an unfinished run, on the same split of the data
+        var checkpointFile = Paths.get(CHECKPOINT_FILE);
+        TrainingCheckpoint resume = null;
+        var requested = config;
+        if (config.isResume()) {
+            try {
+                resume = TrainingCheckpoint.read(checkpointFile);
+            } catch (IOException e) {
+                System.err.println("Ignoring checkpoint: " + e.getMessage());
+            }
+            if (resume != null) {
+                config = config.copy(); // The caller's config keeps its own seed
+                config.setSeed(resume.getSeed());
+            }
+        }
         
-        double[][] inputArray = inputs.toArray(new double[0][]);
-        double[][] outputArray = outputs.toArray(new double[0][]);
+        // Deduplicate, balance, shuffle and split off the validation samples
+        var prepared = prepare(data, config);
+        if (prepared == null) return;
+        if (resume != null && !resume.matches(prepared.getTrainSize(), prepared.getValidationSize())) {
+            System.out.println("The training data has changed since the checkpoint was made, starting again");
+            resume = null;
+            config = requested; // With the caller's seed, not the checkpoint's
+            prepared = prepare(data, config);
+            if (prepared == null) return;
+        }
+        var samples = prepared.getData();
+        int trainSize = prepared.getTrainSize();
         
-        BasicMLDataSet trainingSet = new BasicMLDataSet(inputArray, outputArray);
+        // Carry on training an existing network in whatever encoding it already uses
+        var current = model;
+        var inputs = resume != null ? InputEncoding.of(resume.getNetwork()) : current != null ? current.encoding : config.getEncoding();
+        var validation = prepared.getValidationSize() > 0 ? samples.toDataSet(trainSize, samples.size(), samples.getColumns(), inputs) : null;
+        if (cancelled) {
+            cancelled = false;
+            System.out.println("Training cancelled before it started");
+            return;
+        }
+        train(samples.toDataSet(0, trainSize, samples.getColumns(), inputs), validation, config, checkpointFile, resume);
         
-        if (network == null) {
-            createNetwork();
+        // Save network, unless the run was cancelled before it had anything worth keeping
+        if (lastPublished) saveNetwork();
+    }
+    
+    // The prepared samples, or null if they could not be prepared
+    private static DataPreparation.Result prepare(TrainingData data, TrainingConfig config) {
+        try {
+            var prepared = new DataPreparation(config).prepare(data);
+            System.out.println("Prepared " + prepared);
+            return prepared;
+        } catch (Exception e) {
+            System.err.println("Failed to prepare training data: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /*
+     * Trains the network (a new one if there is none yet) on the given set
+     * and returns the final error. An epoch is one pass over the whole set,
+     * which for the mini-batch modes is many weight updates. Training works
+     * on a copy and only swaps it in at the end, so the old network can
+     * keep flying in the meantime.
+     */
+    public double train(MLDataSet trainingSet, TrainingConfig config) {
+        return train(trainingSet, null, config, null, null);
+    }
+    
+    /*
+     * The same, plus:
+     *   - With a validation set, its error is worked out after every epoch
+     *     and the weights with the lowest one are kept, not the last ones.
+     *   - With a checkpoint file, the weights, the trainer's state and the
+     *     best weights are saved there every checkpoint interval, by a
+     *     background thread so training does not wait. A run that is
+     *     cancelled or runs out of time saves a last checkpoint; one that
+     *     finishes deletes it.
+     *   - With a checkpoint to resume, training carries on from its
+     *     network, epoch, best weights and (for RPROP) step sizes.
+     * cancelTraining() stops the run after the current epoch, so a
+     * checkpoint's weights are always those of a whole number of epochs.
+     * The network is only swapped in if at least one epoch finished and,
+     * for a cancelled run, there are best weights to keep.
+     */
+    public double train(MLDataSet trainingSet, MLDataSet validationSet, TrainingConfig config, Path checkpointFile, TrainingCheckpoint resume) {
+        var current = model;
+        BasicNetwork network;
+        if (resume != null && resume.getNetwork().getInputCount() != trainingSet.getInputSize()) {
+            System.out.println("The checkpoint's network does not fit the training data, starting again");
+            resume = null;
+        }
+        if (resume != null) {
+            network = resume.getNetwork();
+        } else if (current != null) {
+            network = (BasicNetwork) current.network.clone();
+        } else {
+            var inputs = config.getEncoding();
+            network = buildNetwork((int) config.getSeed(), inputs, inputs.columns(trainingSet.getInputSize()), HIDDEN_SIZE);
         }
         
-        System.out.println("Training neural network...");
+        boolean verbose = config.getProgressInterval() > 0;
+        if (verbose) System.out.println("Training neural network: " + config);
         long startTime = System.currentTimeMillis();
         
-        // Use ResilientPropagation with proper parameters
-        ResilientPropagation train = new ResilientPropagation(network, trainingSet);
-        train.setThreadCount(1); // Single threaded for consistency
+        MLTrain train = createTrainer(network, trainingSet, config);
+        int batchesPerEpoch = 1;
+        if (config.getMode() != TrainingConfig.Mode.RPROP) {
+            batchesPerEpoch = (trainingSet.size() + config.getBatchSize() - 1) / config.getBatchSize();
+        }
         
         int epoch = 1;
         double lastError = Double.MAX_VALUE;
+        double currentError = Double.MAX_VALUE;
         int stagnantEpochs = 0;
+        long samplesSeen = 0;
+        double[] bestWeights = null; // Lowest validation error so far
+        double bestError = Double.MAX_VALUE;
+        int bestEpoch = 0;
+        
+        if (resume != null) {
+            epoch = resume.getEpoch() + 1;
+            if (resume.getBestWeights() != null) {
+                bestWeights = resume.getBestWeights();
+                bestError = resume.getBestError();
+                bestEpoch = resume.getBestEpoch();
+            }
+            if (resume.getContinuation() != null && train.canContinue()) {
+                try {
+                    train.resume(resume.getContinuation());
+                } catch (RuntimeException e) {
+                    System.err.println("Could not restore the trainer's state, its step sizes start again: " + e.getMessage());
+                }
+            }
+            System.out.println("Resuming from checkpoint: " + resume);
+        }
+        
+        var writer = checkpointFile != null ? new TrainingCheckpoint.Writer(checkpointFile) : null;
+        long lastCheckpoint = System.currentTimeMillis();
+        boolean finished = true; // False if cancelled or out of time, so worth resuming
+        boolean wasCancelled = false;
+        int firstEpoch = epoch;
         
         do {
-            train.iteration();
-            double currentError = train.getError();
+            if (cancelled) {
+                if (verbose) System.out.println("Training cancelled before epoch " + epoch);
+                finished = false;
+                wasCancelled = true;
+                break;
+            }
+            long epochStart = System.nanoTime();
+            for (int b = 0; b < batchesPerEpoch; b++) {
+                train.iteration();
+            }
+            long epochNanos = System.nanoTime() - epochStart;
+            EPOCH_TIME.record(epochNanos);
+            samplesSeen += trainingSet.size();
+            
+            // RPROP reports the error of the whole set, mini-batch trainers only of the last batch
+            currentError = batchesPerEpoch == 1 ? train.getError() : network.calculateError(trainingSet);
+            
+            double validationError = Double.NaN;
+            if (validationSet != null) {
+                validationError = network.calculateError(validationSet);
+                if (validationError < bestError) {
+                    bestError = validationError;
+                    bestWeights = network.getFlat().getWeights().clone();
+                    bestEpoch = epoch;
+                }
+            }
             
             // Print progress every 50 epochs
-            if (epoch % 50 == 0 || epoch == 1) {
-                System.out.println("Epoch " + epoch + ", Error: " + String.format("%.6f", currentError));
+            if (verbose && (epoch % config.getProgressInterval() == 0 || epoch == 1)) {
+                System.out.println("Epoch " + epoch + ", Error: " + String.format("%.6f", currentError) 
+                        + (validationSet != null ? ", Validation: " + String.format("%.6f", validationError) : "")
+                        + ", " + String.format("%.0f", trainingSet.size() / (epochNanos / 1e9)) + " samples/s");
+            }
+            
+            if (writer != null && System.currentTimeMillis() - lastCheckpoint >= config.getCheckpointIntervalMillis()) {
+                writer.save(checkpoint(network, train, trainingSet, validationSet, config, epoch, bestEpoch, bestError, bestWeights));
+                lastCheckpoint = System.currentTimeMillis();
             }
             
             // Check for stagnation (more sensitive)
@@ -127,52 +340,145 @@ public class NeuralNetworkController {
             epoch++;
             
             // Stop conditions
-            if (currentError <= TARGET_ERROR) {
-                System.out.println("Target error reached at epoch " + (epoch-1));
+            if (currentError <= config.getTargetError()) {
+                if (verbose) System.out.println("Target error reached at epoch " + (epoch-1) + " after " 
+                        + String.format("%.1f", (System.currentTimeMillis() - startTime) / 1000.0) + " seconds");
                 break;
             }
             
-            if (stagnantEpochs > 200) {
-                System.out.println("Training stagnant - stopping at epoch " + (epoch-1));
+            if (stagnantEpochs > config.getMaxStagnantEpochs()) {
+                if (verbose) System.out.println("Training stagnant - stopping at epoch " + (epoch-1));
                 break;
             }
             
-            // Time limit (2 minutes for better convergence)
-            if ((System.currentTimeMillis() - startTime) > 120000) {
-                System.out.println("Training stopped due to 2 minute time limit");
+            if ((System.currentTimeMillis() - startTime) > config.getTimeLimitMillis()) {
+                if (verbose) System.out.println("Training stopped due to " + (config.getTimeLimitMillis() / 1000) + " second time limit"
+                        + (writer != null ? " - train again to carry on" : ""));
+                finished = false;
                 break;
             }
             
-        } while (epoch <= MAX_EPOCHS);
+        } while (epoch <= config.getMaxEpochs());
+        cancelled = false;
+        
+        // The last checkpoint of a run that can be carried on, or none for one that is done
+        boolean trained = epoch > firstEpoch;
+        if (writer != null) {
+            if (!finished && trained) writer.save(checkpoint(network, train, trainingSet, validationSet, config, epoch - 1, bestEpoch, bestError, bestWeights));
+            writer.close();
+            if (finished) {
+                try {
+                    Files.deleteIfExists(checkpointFile);
+                } catch (IOException e) {
+                    System.err.println("Failed to delete checkpoint: " + e.getMessage());
+                }
+            }
+        }
         
         train.finishTraining();
+        lastPublished = trained && !(wasCancelled && bestWeights == null);
+        if (!lastPublished) {
+            if (verbose) System.out.println("Nothing worth keeping was trained, the network is unchanged");
+            lastEpochs = epoch - 1;
+            return currentError;
+        }
+        if (bestWeights != null) {
+            System.arraycopy(bestWeights, 0, network.getFlat().getWeights(), 0, bestWeights.length);
+            if (bestEpoch != epoch - 1) currentError = network.calculateError(trainingSet);
+        }
+        setNetwork(network); // Pick up the trained weights
         
+        lastEpochs = epoch - 1;
         double trainingTime = (System.currentTimeMillis() - startTime) / 1000.0;
-        System.out.println("Training completed in " + String.format("%.1f", trainingTime) + " seconds");
-        System.out.println("Final error: " + String.format("%.6f", train.getError()));
-        System.out.println("Total epochs: " + (epoch-1));
+        if (verbose) {
+            System.out.println("Training completed in " + String.format("%.1f", trainingTime) + " seconds");
+            System.out.println("Final error: " + String.format("%.6f", currentError));
+            if (bestWeights != null) {
+                System.out.println("Kept the weights from epoch " + bestEpoch + ", validation error: " + String.format("%.6f", bestError));
+            }
+            System.out.println("Total epochs: " + (epoch-1));
+            System.out.println("Throughput: " + String.format("%.0f", samplesSeen / trainingTime) + " samples/s");
+        }
         
-        // Save network
-        saveNetwork();
+        return currentError;
+    }
+    
+    // A copy of the run so far that training will not change, for the checkpoint writer
+    private static TrainingCheckpoint checkpoint(BasicNetwork network, MLTrain train, MLDataSet trainingSet, MLDataSet validationSet,
+            TrainingConfig config, int epoch, int bestEpoch, double bestError, double[] bestWeights) {
+        return new TrainingCheckpoint(config.getSeed(), trainingSet.size(), validationSet != null ? validationSet.size() : 0,
+                epoch, bestEpoch, bestWeights != null ? bestError : Double.NaN, (BasicNetwork) network.clone(), bestWeights,
+                train.canContinue() ? train.pause() : null);
+    }
+    
+    // Stops the training run in progress (or the next one to start) after its current epoch, keeping its best weights
+    public void cancelTraining() {
+        cancelled = true;
     }
     
+    private static MLTrain createTrainer(BasicNetwork network, MLDataSet trainingSet, TrainingConfig config) {
+        switch (config.getMode()) {
+            case SGD:
+            case ADAM:
+                var sgd = new StochasticGradientDescent(network, trainingSet, 
+                        new MersenneTwisterGenerateRandom(config.getSeed()));
+                sgd.setBatchSize(config.getBatchSize());
+                sgd.setLearningRate(config.getLearningRate());
+                sgd.setMomentum(config.getMomentum());
+                sgd.setUpdateRule(config.getMode() == TrainingConfig.Mode.ADAM ? new AdamUpdate() : new MomentumUpdate());
+                return sgd;
+            default:
+                ResilientPropagation rprop = new ResilientPropagation(network, trainingSet);
+                rprop.setThreadCount(config.getTrainerThreads());
+                return rprop;
+        }
+    }
+    
+    /*
+     * Saves the network as MODEL_FILE, as a timestamped copy of that in
+     * MODELS_DIR and as NETWORK_FILE for Encog. Every file is written
+     * beside its target and renamed into place, so anything watching
+     * them only ever sees a complete network.
+     */
     public void saveNetwork() {
+        var current = model;
+        if (current == null) return;
         try {
-            EncogDirectoryPersistence.saveObject(new File("resources/neural_network.eg"), network);
-            System.out.println("Neural network saved");
+            var version = "neural_network-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ModelFile.EXTENSION;
+            ModelFile.write(current.network, Paths.get(MODELS_DIR, version));
+            
+            var file = Paths.get(NETWORK_FILE);
+            var temp = file.resolveSibling(file.getFileName() + ".tmp");
+            EncogDirectoryPersistence.saveObject(temp.toFile(), current.network);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            
+            // Last, so the binary model is the newest file and is the one loaded
+            ModelFile.write(current.network, Paths.get(MODEL_FILE));
+            System.out.println("Neural network saved (" + MODELS_DIR + "/" + version + ")");
         } catch (Exception e) {
             System.err.println("Failed to save network: " + e.getMessage());
         }
     }
     
+    // The binary model if it is at least as new as the .eg file, which may have been replaced by hand
+    private static Path defaultNetworkFile() {
+        var binary = new File(MODEL_FILE);
+        var eg = new File(NETWORK_FILE);
+        return binary.exists() && (!eg.exists() || binary.lastModified() >= eg.lastModified()) ? binary.toPath() : eg.toPath();
+    }
+    
     public boolean loadNetwork() {
+        return loadNetwork(defaultNetworkFile().toFile());
+    }
+    
+    // Load a network from anywhere, e.g. an older version to compare against, in either format
+    public boolean loadNetwork(File file) {
         try {
-            File file = new File("resources/neural_network.eg");
             if (!file.exists()) {
                 return false;
             }
             
-            network = (BasicNetwork) EncogDirectoryPersistence.loadObject(file);
+            setNetwork(ModelFile.readAny(file.toPath()));
             System.out.println("Neural network loaded");
             return true;
         } catch (Exception e) {
@@ -181,33 +487,109 @@ public class NeuralNetworkController {
         }
     }
     
+    /*
+     * Loads the network in the background, now and every time its file
+     * changes, and swaps each network in as soon as it has been read. The
+     * game carries on with the old network (or none) in the meantime.
+     * Both MODEL_FILE and NETWORK_FILE are watched and the newer one is
+     * loaded, the binary model if they are as new as each other, the same
+     * as defaultNetworkFile().
+     */
+    public NetworkWatcher watchNetwork() {
+        var watcher = new NetworkWatcher(this::setNetwork, Paths.get(MODEL_FILE), Paths.get(NETWORK_FILE));
+        watcher.start();
+        return watcher;
+    }
+    
     public int predict(double[] gameState) {
-        if (network == null) {
+        return predict(gameState, output);
+    }
+    
+    /*
+     * Allocation-free prediction: the caller owns both buffers, output
+     * must hold OUTPUT_SIZE values and receives the raw network outputs.
+     */
+    public int predict(double[] gameState, double[] output) {
+        var m = model;
+        if (m == null) {
             return 0; // Default to stay
         }
-        
-        if (gameState.length != INPUT_SIZE) {
-            System.err.println("Invalid input size: expected " + INPUT_SIZE + ", got " + gameState.length);
+        return predict(m, gameState, output);
+    }
+    
+    private int predict(Model m, double[] gameState, double[] output) {
+        if (gameState.length != m.forward.getInputCount()) {
+            System.err.println("Invalid input size: expected " + m.forward.getInputCount() + ", got " + gameState.length);
             return 0;
         }
         
-        MLData input = new BasicMLData(gameState);
-        MLData output = network.compute(input);
+        long n = ++decisions;
+        if (n % INFERENCE_SAMPLING == 0) {
+            long start = System.nanoTime();
+            m.forward.compute(gameState, output);
+            INFERENCE_TIME.recordSince(start);
+        } else {
+            m.forward.compute(gameState, output);
+        }
+        DECISIONS.increment();
         
+        int move = toMove(output, 0);
+        
+        // Log network decision for debugging
+        if (logInterval > 0 && n % logInterval == 0) {
+            String action = move == -1 ? "UP" : "DOWN";
+            System.out.println(String.format("NN: %s (UP=%.3f, DOWN=%.3f)", 
+                              action, output[0], output[1]));
+        }
+        return move;
+    }
+    
+    /*
+     * Batched prediction: runs count game states laid end to end in
+     * gameStates through the network in one call and writes the move for
+     * each into moves. The moves are exactly those of predict(), just
+     * cheaper per state. Not logged. The outputs go into a buffer kept by
+     * this controller, grown when a bigger batch comes along, so like
+     * predict(double[]) this is for one thread at a time.
+     */
+    public void predict(double[] gameStates, int count, int[] moves) {
+        if (batchOutput.length < count * OUTPUT_SIZE) batchOutput = new double[count * OUTPUT_SIZE];
+        predict(gameStates, count, moves, batchOutput);
+    }
+    
+    /*
+     * The same with the caller's buffer of at least count * 2 outputs.
+     * Still one thread at a time: every predict() runs through the model's
+     * one forward pass and its scratch layers, so give each thread its own
+     * controller, as BatchEvaluator does.
+     */
+    public void predict(double[] gameStates, int count, int[] moves, double[] outputs) {
+        var m = model;
+        if (m == null) {
+            Arrays.fill(moves, 0, count, 0); // Default to stay
+            return;
+        }
+        predict(m, gameStates, count, moves, outputs);
+    }
+    
+    private void predict(Model m, double[] gameStates, int count, int[] moves, double[] outputs) {
+        m.forward.compute(gameStates, outputs, count);
+        DECISIONS.add(count);
+        for (int i = 0; i < count; i++) {
+            moves[i] = toMove(outputs, i * OUTPUT_SIZE);
+        }
+    }
+    
+    // The action for the outputs starting at offset
+    private static int toMove(double[] outputs, int offset) {
         // Find the highest output (winner takes all)
-        double[] data = output.getData();
         int maxIndex = 0;
-        for (int i = 1; i < data.length; i++) {
-            if (data[i] > data[maxIndex]) {
+        for (int i = 1; i < OUTPUT_SIZE; i++) {
+            if (outputs[offset + i] > outputs[offset + maxIndex]) {
                 maxIndex = i;
             }
         }
         
-        // Log network decision for debugging
-        String action = maxIndex == 0 ? "UP" : "DOWN";
-        System.out.println(String.format("NN: %s (UP=%.3f, DOWN=%.3f)", 
-                          action, data[0], data[1]));
-        
         // Convert back to action (binary: UP or DOWN)
         switch (maxIndex) {
             case 0: return -1; // UP
@@ -216,7 +598,140 @@ public class NeuralNetworkController {
         }
     }
     
+    /*
+     * Builds the network's input for the current game in its own encoding
+     * and returns the move, without allocating.
+     */
+    public int decide(Simulation sim) {
+        var m = model; // Read once, a new network may be swapped in at any time
+        if (m == null) {
+            return 0; // Default to stay
+        }
+        if (input.length != m.forward.getInputCount()) {
+            input = new double[m.forward.getInputCount()];
+        }
+        if (decisionCache == null || m.columns > DecisionTable.MAX_COLUMNS) {
+            return predict(m, m.encoding.encode(sim, input, m.columns), output);
+        }
+        
+        // Decisions remembered for an older network no longer hold
+        if (cacheModel != m) {
+            decisionCache.clear();
+            cacheModel = m;
+        }
+        if (tableModel != m) {
+            decisionTable = null;
+        }
+        
+        // The packed cells and the row are the whole input, so they key the decision exactly
+        long cells = sim.packHorizon(m.columns);
+        int row = sim.getPlayerRow();
+        if (decisionTable != null) {
+            int move = decisionTable.get(cells, row);
+            if (move != DecisionTable.NOT_COVERED) {
+                tableHits++;
+                return move;
+            }
+        }
+        int move = decisionCache.get(cells, row);
+        if (move == DecisionCache.MISSING) {
+            move = predict(m, m.encoding.encode(sim, input, m.columns), output);
+            decisionCache.put(cells, row, move);
+        }
+        return move;
+    }
+    
+    /*
+     * Puts a cache of up to maxEntries decisions in front of the network
+     * for decide() and toPilot(). Cached decisions are exactly the ones
+     * the network would make, so only the speed changes. Networks that
+     * see more than 3 columns are never cached. Decision logging only
+     * sees the decisions that reach the network. The cache belongs to
+     * the thread that calls decide().
+     */
+    public void enableDecisionCache(int maxEntries) {
+        decisionCache = new DecisionCache(maxEntries);
+    }
+    
+    /*
+     * Works out the move for every horizon the random walk cavern can
+     * produce (see DecisionTable) and looks those up before the cache.
+     * Takes a second or two for 3 columns. Needs enableDecisionCache().
+     */
+    public DecisionTable precompileDecisions() {
+        if (decisionCache == null) throw new IllegalStateException("Enable the decision cache first");
+        var m = model;
+        var outputs = new double[DecisionTable.BATCH * OUTPUT_SIZE]; // One buffer for every batch of the build
+        var table = DecisionTable.build(m.columns, m.encoding, (in, count, moves) -> predict(m, in, count, moves, outputs));
+        decisionTable = table;
+        tableModel = m;
+        return table;
+    }
+    
+    // Shares a table built by another controller with the same weights, e.g. the one this was cloned from
+    public void setDecisionTable(DecisionTable table) {
+        if (decisionCache == null) throw new IllegalStateException("Enable the decision cache first");
+        decisionTable = table;
+        tableModel = model;
+    }
+    
+    public String getDecisionStats() {
+        if (decisionCache == null) return "Decision cache off";
+        return (decisionTable != null ? "Decision table: " + tableHits + " hits. " : "") + decisionCache;
+    }
+    
+    /*
+     * A pilot flown by the current network that reuses its own input and
+     * output buffers. The encoding and horizon width are those of the
+     * network. It keeps flying this network even if another is swapped in.
+     */
+    public Pilot toPilot() {
+        if (decisionCache != null) {
+            return this::decide; // Shares this controller's cache and buffers
+        }
+        var m = model;
+        double[] gameState = new double[m.forward.getInputCount()];
+        double[] output = new double[OUTPUT_SIZE];
+        return sim -> predict(m, m.encoding.encode(sim, gameState, m.columns), output);
+    }
+    
+    // Print every Nth decision to the console, 0 turns decision logging off
+    public void setLogInterval(int logInterval) {
+        this.logInterval = logInterval;
+    }
+    
+    public int getLastEpochs() {
+        return lastEpochs;
+    }
+    
+    public BasicNetwork getNetwork() {
+        var m = model;
+        return m == null ? null : m.network;
+    }
+    
     public boolean isReady() {
-        return network != null;
+        return model != null;
+    }
+    
+    /*
+     * Trains from the command line, e.g. on a machine with no display.
+     * Usage: java ie.atu.sw.NeuralNetworkController [rprop|sgd|adam] [threads, deterministic or batch size] [seed] [cells|gaps]
+     */
+    public static void main(String[] args) throws IOException {
+        var config = new TrainingConfig();
+        if (args.length > 0) config.setMode(TrainingConfig.Mode.valueOf(args[0].toUpperCase()));
+        if (args.length > 1) {
+            if (args[1].equals("deterministic")) {
+                config.setDeterministic(true);
+            } else if (config.getMode() == TrainingConfig.Mode.RPROP) {
+                config.setThreads(Integer.parseInt(args[1]));
+            } else {
+                config.setBatchSize(Integer.parseInt(args[1]));
+            }
+        }
+        if (args.length > 2) config.setSeed(Long.parseLong(args[2]));
+        if (args.length > 3) config.setEncoding(InputEncoding.valueOf(args[3].toUpperCase()));
+        
+        new NeuralNetworkController().trainNetwork(config);
     }
-}
\ No newline at end of file
+}
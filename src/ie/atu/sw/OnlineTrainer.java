@@ -0,0 +1,216 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.PLAYER_COLUMN;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.encog.mathutil.randomize.generate.MersenneTwisterGenerateRandom;
+import org.encog.neural.networks.BasicNetwork;
+import org.encog.neural.networks.training.propagation.sgd.StochasticGradientDescent;
+import org.encog.neural.networks.training.propagation.sgd.update.AdamUpdate;
+
+/*
+ * Keeps training the controller's network while the game is played, so
+ * a few minutes of new play do not need a full retrain from the CSV.
+ *
+ * add() is called with every manual move. It copies the horizon (as
+ * column bit masks), the row and the move into a small inbox and
+ * returns. A background thread moves the inbox into a replay buffer of
+ * the last `capacity` samples, overwriting the oldest once it is full,
+ * and trains a private copy of the network on random mini-batches drawn
+ * from all of it with Adam. Old samples are replayed alongside new ones,
+ * so the network does not just learn the last few seconds.
+ *
+ * Training is paced by the data: every new sample buys ITERATIONS_PER_SAMPLE
+ * mini-batches, and the thread sleeps when there is nothing new. Every
+ * PUBLISH_MILLIS the trained weights are handed to the controller as a
+ * new network, which swaps it in atomically between two decisions, so
+ * the game never waits for the trainer.
+ */
+public class OnlineTrainer implements Runnable {
+	private static final int INBOX_CAPACITY 		= 1024;
+	private static final int MIN_SAMPLES 			= 64;	//Nothing is learned from fewer
+	private static final int BATCH_SIZE 			= 32;
+	private static final double LEARNING_RATE 		= 0.001;
+	private static final int ITERATIONS_PER_SAMPLE 	= 4;
+	private static final int MAX_OWED_ITERATIONS 	= 5000;	//Catching up on a burst is capped, the rest is dropped
+	private static final long PUBLISH_MILLIS 		= 2000;
+	private static final long IDLE_NANOS 			= 20_000_000L;
+
+	private static final LongAdder SAMPLES = Metrics.counter("online.samples");
+	private static final LongAdder PUBLISHED = Metrics.counter("online.published");
+	private static final LatencyHistogram BATCH_TIME = Metrics.histogram("online.batch");
+
+	private final NeuralNetworkController controller;
+	private final int columns;
+	private final InputEncoding encoding;
+	private final BasicNetwork network; //The copy being trained, never published itself
+	private final TrainingData replay;
+	private final int capacity;
+
+	//Inbox, filled by add() and emptied by the trainer thread, both holding the lock
+	private final int[] inboxMasks;
+	private final int[] inboxRows = new int[INBOX_CAPACITY];
+	private final int[] inboxActions = new int[INBOX_CAPACITY];
+	private int inboxSize;
+	private long droppedSamples;
+
+	private volatile boolean running;
+	private Thread thread;
+	private long written;   //Samples ever put in the replay buffer
+	private volatile long iterations;
+	private volatile long publishedIterations;
+
+	/*
+	 * Trains on from the controller's current network, which must exist.
+	 * The replay buffer keeps the last capacity samples.
+	 */
+	public OnlineTrainer(NeuralNetworkController controller, int capacity) {
+		var current = controller.getNetwork();
+		if (current == null) throw new IllegalStateException("Online learning needs a network to start from");
+		this.controller = controller;
+		this.network = (BasicNetwork) current.clone();
+		this.encoding = InputEncoding.of(network);
+		this.columns = encoding.columns(network.getInputCount());
+		this.capacity = capacity;
+		this.replay = TrainingData.withCapacity(columns, capacity);
+		this.inboxMasks = new int[INBOX_CAPACITY * columns];
+	}
+
+	/*
+	 * Queues the game's current horizon and row, labelled with the move
+	 * just made (-1 UP or 1 DOWN). Only takes the trainer's lock for a
+	 * copy of a few ints. Returns false if the inbox was full.
+	 */
+	public boolean add(Simulation sim, int action) {
+		if (!running || action == 0) return false;
+		synchronized (this) {
+			if (inboxSize == INBOX_CAPACITY) {
+				droppedSamples++;
+				return false;
+			}
+			for (int c = 0; c < columns; c++) {
+				inboxMasks[inboxSize * columns + c] = sim.getColumnMask(PLAYER_COLUMN + 1 + c);
+			}
+			inboxRows[inboxSize] = sim.getPlayerRow();
+			inboxActions[inboxSize] = action;
+			inboxSize++;
+		}
+		LockSupport.unpark(thread);
+		return true;
+	}
+
+	public synchronized void start() {
+		if (running) return;
+		running = true;
+		thread = new Thread(this, "online-trainer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	//Stops training and publishes whatever has been learned since the last publish
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			if (!running) return;
+			running = false;
+			t = thread;
+		}
+		LockSupport.unpark(t);
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	//Samples in the replay buffer
+	public synchronized int size() {
+		return (int) Math.min(written, capacity);
+	}
+
+	@Override
+	public void run() {
+		var random = new MersenneTwisterGenerateRandom(System.nanoTime());
+		long owed = 0; //Mini-batches earned by new samples and not trained yet
+		long lastPublish = System.currentTimeMillis();
+		StochasticGradientDescent sgd = null;
+		int sgdSize = 0;
+
+		while (running) {
+			int added = drainInbox();
+			owed = Math.min(MAX_OWED_ITERATIONS, owed + (long) added * ITERATIONS_PER_SAMPLE);
+			int size = (int) Math.min(written, capacity);
+
+			if (size >= MIN_SAMPLES && owed > 0) {
+				/*
+				 * Encog's SGD samples its batches from a fixed view of the data,
+				 * so it is rebuilt each time the buffer has grown by an eighth
+				 * while it fills up. The Adam moments start again then, which
+				 * the first few batches shrug off. Once the buffer is full the
+				 * view stays the same and just sees the samples overwritten.
+				 */
+				if (sgd == null || size >= sgdSize + Math.max(1, sgdSize / 8) || size == capacity && sgdSize != capacity) {
+					sgd = new StochasticGradientDescent(network, replay.toDataSet(0, size, columns, encoding), random);
+					sgd.setBatchSize(BATCH_SIZE);
+					sgd.setLearningRate(LEARNING_RATE);
+					sgd.setUpdateRule(new AdamUpdate());
+					sgdSize = size;
+				}
+				long start = System.nanoTime();
+				sgd.iteration();
+				BATCH_TIME.recordSince(start);
+				iterations++;
+				owed--;
+			} else {
+				LockSupport.parkNanos(this, IDLE_NANOS);
+			}
+
+			if (System.currentTimeMillis() - lastPublish >= PUBLISH_MILLIS) {
+				publish();
+				lastPublish = System.currentTimeMillis();
+			}
+		}
+		drainInbox();
+		publish();
+	}
+
+	//Moves the inbox into the replay buffer and returns how many samples that was
+	private int drainInbox() {
+		synchronized (this) {
+			for (int i = 0; i < inboxSize; i++) {
+				int slot = (int) (written % capacity);
+				replay.set(slot, inboxMasks, i * columns, inboxRows[i], inboxActions[i]);
+				written++;
+			}
+			int added = inboxSize;
+			inboxSize = 0;
+			SAMPLES.add(added);
+			return added;
+		}
+	}
+
+	//Hands a copy of the weights to the controller if they have changed
+	private void publish() {
+		if (iterations == publishedIterations) return;
+		controller.setNetwork((BasicNetwork) network.clone());
+		publishedIterations = iterations;
+		PUBLISHED.increment();
+	}
+
+	//Mini-batches trained so far
+	public long getIterations() {
+		return iterations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Online learning: " + written + " samples (" + Math.min(written, capacity) + " in the replay buffer, "
+				+ droppedSamples + " dropped), " + iterations + " mini-batches, last published after " + publishedIterations;
+	}
+}
@@ -0,0 +1,10 @@
+package ie.atu.sw;
+
+/*
+ * Anything that can fly the plane. Called once per tick after the cavern
+ * has scrolled and returns -1 (up), 0 (stay) or 1 (down).
+ */
+@FunctionalInterface
+public interface Pilot {
+	int nextMove(Simulation sim);
+}
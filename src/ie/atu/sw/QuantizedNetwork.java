@@ -0,0 +1,482 @@
+package ie.atu.sw;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.encog.engine.network.activation.ActivationFunction;
+import org.encog.neural.networks.BasicNetwork;
+
+/*
+ * An 8 bit fixed point copy of a trained network with an integer
+ * forward pass. The default network's weights are about 5KB in this
+ * form against 41KB of doubles, so many networks (or many threads each
+ * flying their own) fit in the L1 and L2 caches at once.
+ *
+ * Weights are rounded to int8 with one scale per neuron: the weight of
+ * largest magnitude feeding a neuron becomes +-127. Activations are
+ * rounded to int16 as they go into each layer, with one scale per
+ * layer per call picked from the largest value (dynamic quantization),
+ * so nothing has to be calibrated up front. That is exact for the 0/1
+ * horizon cells and the bias, and puts the player row within half a
+ * step of 1/32767. Each neuron's sum is then int8 * int16 products added
+ * in an int, scaled back once to a double for the activation function.
+ * Layers wide enough to overflow the int get a smaller int16 range.
+ *
+ * Decisions are not guaranteed to be the float network's; main() and
+ * compare() report how often they differ. On Java 17 it is also not
+ * faster than BatchForwardPass per decision: C2 does not vectorise the
+ * byte loads that widen to int, and an int multiply costs more than a
+ * double one, so the gain is in size, not speed. An instance is not
+ * thread safe; use copy() for another thread.
+ *
+ * File layout (.nnq), all little-endian:
+ *   int     magic "NNQ1"
+ *   short   version
+ *   short   layers, counting from the input layer
+ *   int     properties
+ *   then per layer, as in ModelFile but without the dropout rate (it is
+ *   folded into the scales):
+ *     int     neurons, not counting the bias
+ *     byte    1 if the layer has a bias neuron
+ *     byte    activation id
+ *     byte    activation parameters
+ *     byte    reserved
+ *     double  bias activation
+ *     double  each activation parameter
+ *   then per property: short + UTF-8 key, short + UTF-8 value
+ *   then per layer after the input layer:
+ *     float   the scale of each neuron
+ *     byte    the weights, input by input: [y * neurons + x] feeds neuron x from y
+ *   int     CRC32 of everything before it
+ *
+ * Version 1 files, whose CRC only covered the scales and weights, can
+ * still be read.
+ */
+public class QuantizedNetwork {
+	public static final String EXTENSION = ".nnq";
+	public static final String FILE = "resources/neural_network" + EXTENSION;
+
+	private static final int MAGIC 		= 0x31514E4E; //"NNQ1" read little-endian
+	private static final short VERSION 	= 2;
+	private static final short WEIGHTS_CRC_VERSION = 1; //The last version to checksum only the scales and weights
+	private static final int WEIGHT_MAX = 127;
+	private static final int ACTIVATION_MAX = 32767;
+
+	private final byte[][] weights;			//Per layer: [y * outSize + x], as in BatchForwardPass
+	private final float[][] scales;			//Per layer, per neuron of layer l + 1: weight value of one step
+	private final int[] feedCounts;			//Neurons per layer, not counting the bias
+	private final int[] layerCounts;		//Neurons per layer, including the bias
+	private final double[] biases;			//Bias activation of each layer
+	private final int[] activationMax;		//Largest int16 input to layer l + 1 that cannot overflow its sums
+	private final ActivationFunction[] activations; //Per layer, activations[0] is never used
+	private final Map<String, String> properties;
+
+	//Working buffers
+	private final double[][] layers;
+	private final int[] quantized;		//The inputs of the current layer as int16 values
+	private final int[] sums;
+
+	private QuantizedNetwork(byte[][] weights, float[][] scales, int[] feedCounts, int[] layerCounts, double[] biases,
+			ActivationFunction[] activations, Map<String, String> properties) {
+		this.weights = weights;
+		this.scales = scales;
+		this.feedCounts = feedCounts;
+		this.layerCounts = layerCounts;
+		this.biases = biases;
+		this.activations = activations;
+		this.properties = properties;
+
+		int count = layerCounts.length;
+		activationMax = new int[count - 1];
+		int widest = 0;
+		for (int l = 0; l < count - 1; l++) {
+			activationMax[l] = (int) Math.min(ACTIVATION_MAX, Integer.MAX_VALUE / ((long) layerCounts[l] * WEIGHT_MAX));
+			if (activationMax[l] < 1) throw new IllegalArgumentException("Layer " + l + " is too wide to quantize");
+			widest = Math.max(widest, Math.max(layerCounts[l], feedCounts[l + 1]));
+		}
+		layers = new double[count][];
+		for (int l = 0; l < count; l++) {
+			layers[l] = new double[layerCounts[l]];
+			if (layerCounts[l] > feedCounts[l]) layers[l][feedCounts[l]] = biases[l]; //The bias neuron never changes
+		}
+		quantized = new int[widest];
+		sums = new int[widest];
+	}
+
+	//Another copy over the same (shared, read only) weights with its own buffers
+	public QuantizedNetwork copy() {
+		return new QuantizedNetwork(weights, scales, feedCounts, layerCounts, biases, activations, properties);
+	}
+
+	//Rounds a trained feed forward network to 8 bit weights
+	public static QuantizedNetwork quantize(BasicNetwork network) {
+		var flat = network.getFlat();
+		for (int context : flat.getLayerContextCount()) {
+			if (context != 0) throw new IllegalArgumentException("Recurrent networks cannot be quantized");
+		}
+		int count = flat.getLayerCounts().length;
+		var flatWeights = flat.getWeights();
+		var dropout = flat.getLayerDropoutRates();
+		var feedCounts = new int[count];
+		var layerCounts = new int[count];
+		var biases = new double[count];
+		var activations = new ActivationFunction[count];
+		for (int l = 0; l < count; l++) {
+			int e = count - 1 - l; //Encog numbers the layers from the output
+			feedCounts[l] = flat.getLayerFeedCounts()[e];
+			layerCounts[l] = flat.getLayerCounts()[e];
+			biases[l] = flat.getBiasActivation()[e];
+			activations[l] = flat.getActivationFunctions()[e];
+		}
+
+		var weights = new byte[count - 1][];
+		var scales = new float[count - 1][];
+		for (int l = 0; l < count - 1; l++) {
+			int e = count - 1 - l;
+			int inSize = layerCounts[l];
+			int outSize = feedCounts[l + 1];
+			int offset = flat.getWeightIndex()[e - 1];
+			double factor = 1 - (dropout.length > e - 1 ? dropout[e - 1] : 0);
+			weights[l] = new byte[inSize * outSize];
+			scales[l] = new float[outSize];
+			for (int x = 0; x < outSize; x++) {
+				double max = 0;
+				for (int y = 0; y < inSize; y++) max = Math.max(max, Math.abs(flatWeights[offset + x * inSize + y]));
+				float scale = (float) (max / WEIGHT_MAX);
+				scales[l][x] = (float) (scale * factor);
+				if (scale == 0) continue;
+				for (int y = 0; y < inSize; y++) {
+					long q = Math.round(flatWeights[offset + x * inSize + y] / scale);
+					weights[l][y * outSize + x] = (byte) Math.max(-WEIGHT_MAX, Math.min(WEIGHT_MAX, q));
+				}
+			}
+		}
+
+		var properties = new TreeMap<String, String>(network.getProperties());
+		return new QuantizedNetwork(weights, scales, feedCounts, layerCounts, biases, activations, properties);
+	}
+
+	public void compute(double[] input, double[] output) {
+		compute(input, 0, output, 0);
+	}
+
+	//Runs count inputs laid end to end through the network, as BatchForwardPass does
+	public void compute(double[] inputs, double[] outputs, int count) {
+		int inputCount = getInputCount();
+		int outputCount = getOutputCount();
+		for (int s = 0; s < count; s++) {
+			compute(inputs, s * inputCount, outputs, s * outputCount);
+		}
+	}
+
+	private void compute(double[] input, int inputOffset, double[] output, int outputOffset) {
+		System.arraycopy(input, inputOffset, layers[0], 0, feedCounts[0]);
+
+		for (int l = 0; l < weights.length; l++) {
+			double[] in = layers[l];
+			double[] out = layers[l + 1];
+			byte[] w = weights[l];
+			float[] scale = scales[l];
+			int inSize = layerCounts[l];
+			int outSize = feedCounts[l + 1];
+
+			//One step of the int16 inputs is the largest input / activationMax
+			double largest = 0;
+			for (int y = 0; y < inSize; y++) {
+				double v = in[y] < 0 ? -in[y] : in[y];
+				if (v > largest) largest = v;
+			}
+			double step = largest / activationMax[l];
+			double toInt = largest == 0 ? 0 : activationMax[l] / largest;
+			for (int y = 0; y < inSize; y++) {
+				double v = in[y] * toInt;
+				quantized[y] = (int) (v < 0 ? v - 0.5 : v + 0.5); //Rounded half away from zero
+			}
+
+			for (int x = 0; x < outSize; x++) sums[x] = 0;
+			for (int y = 0; y < inSize; y++) {
+				int v = quantized[y];
+				if (v == 0) continue; //Most of the horizon cells
+				int row = y * outSize;
+				for (int x = 0; x < outSize; x++) {
+					sums[x] += w[row + x] * v;
+				}
+			}
+			for (int x = 0; x < outSize; x++) out[x] = sums[x] * (scale[x] * step);
+			activations[l + 1].activationFunction(out, 0, outSize);
+		}
+
+		System.arraycopy(layers[layers.length - 1], 0, output, outputOffset, feedCounts[feedCounts.length - 1]);
+	}
+
+	public int getInputCount() {
+		return feedCounts[0];
+	}
+
+	public int getOutputCount() {
+		return feedCounts[feedCounts.length - 1];
+	}
+
+	public InputEncoding getEncoding() {
+		var name = properties.get(InputEncoding.PROPERTY);
+		return name == null ? InputEncoding.CELLS : InputEncoding.valueOf(name);
+	}
+
+	//Bytes of weights and scales, what has to stay in cache
+	public int getWeightBytes() {
+		int bytes = 0;
+		for (int l = 0; l < weights.length; l++) bytes += weights[l].length + scales[l].length * Float.BYTES;
+		return bytes;
+	}
+
+	/*
+	 * A pilot flown by its own copy of this network, taking the first
+	 * output as UP and the second as DOWN like the controller.
+	 */
+	public Pilot toPilot() {
+		var network = copy();
+		var encoding = getEncoding();
+		int columns = encoding.columns(getInputCount());
+		var input = new double[getInputCount()];
+		var output = new double[getOutputCount()];
+		return sim -> {
+			network.compute(encoding.encode(sim, input, columns), output);
+			return output[1] > output[0] ? 1 : -1;
+		};
+	}
+
+	public void write(Path file) throws IOException {
+		int count = layerCounts.length;
+		var buffer = ByteBuffer.allocate((1 << 16) + getWeightBytes()).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort((short) count);
+		buffer.putInt(properties.size());
+		for (int l = 0; l < count; l++) {
+			var params = activations[l].getParams();
+			buffer.putInt(feedCounts[l]);
+			buffer.put((byte) (layerCounts[l] > feedCounts[l] ? 1 : 0));
+			buffer.put((byte) ModelFile.activationId(activations[l]));
+			buffer.put((byte) params.length);
+			buffer.put((byte) 0);
+			buffer.putDouble(biases[l]);
+			for (double param : params) buffer.putDouble(param);
+		}
+		for (var property : properties.entrySet()) {
+			ModelFile.putString(buffer, property.getKey());
+			ModelFile.putString(buffer, property.getValue());
+		}
+		for (int l = 0; l < weights.length; l++) {
+			for (float scale : scales[l]) buffer.putFloat(scale);
+			buffer.put(weights[l]);
+		}
+		buffer.putInt(ModelFile.checksum(buffer, 0, buffer.position()));
+
+		//Written beside the target and renamed, so a reader never sees half a model
+		if (file.getParent() != null) Files.createDirectories(file.getParent());
+		var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.write(tmp, Arrays.copyOf(buffer.array(), buffer.position()));
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public static QuantizedNetwork read(Path file) throws IOException {
+		try (var channel = FileChannel.open(file)) {
+			var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) throw new IOException(file + " is not a " + EXTENSION + " model");
+			int version = buffer.getShort();
+			if (version != VERSION && version != WEIGHTS_CRC_VERSION) throw new IOException(file + " is model version " + version + ", expected " + VERSION);
+			int end = buffer.limit() - 4;
+			if (version == VERSION && buffer.getInt(end) != ModelFile.checksum(buffer, 0, end)) {
+				throw new IOException(file + " is corrupt, it does not match its checksum");
+			}
+
+			int count = buffer.getShort();
+			int propertyCount = buffer.getInt();
+			var feedCounts = new int[count];
+			var layerCounts = new int[count];
+			var biases = new double[count];
+			var activations = new ActivationFunction[count];
+			for (int l = 0; l < count; l++) {
+				feedCounts[l] = buffer.getInt();
+				layerCounts[l] = feedCounts[l] + (buffer.get() != 0 ? 1 : 0);
+				activations[l] = ModelFile.activation(buffer.get(), file);
+				int params = buffer.get();
+				buffer.get();
+				biases[l] = buffer.getDouble();
+				for (int p = 0; p < params; p++) activations[l].setParam(p, buffer.getDouble());
+			}
+			var properties = new TreeMap<String, String>();
+			for (int p = 0; p < propertyCount; p++) {
+				properties.put(ModelFile.getString(buffer), ModelFile.getString(buffer));
+			}
+
+			int weightsStart = buffer.position();
+			var weights = new byte[count - 1][];
+			var scales = new float[count - 1][];
+			for (int l = 0; l < count - 1; l++) {
+				scales[l] = new float[feedCounts[l + 1]];
+				buffer.asFloatBuffer().get(scales[l]);
+				buffer.position(buffer.position() + scales[l].length * Float.BYTES);
+				weights[l] = new byte[layerCounts[l] * feedCounts[l + 1]];
+				buffer.get(weights[l]);
+			}
+			int length = buffer.position() - weightsStart;
+			if (buffer.remaining() != 4) throw new IOException(file + " does not hold the weights its layers need");
+			if (version == WEIGHTS_CRC_VERSION && buffer.getInt() != ModelFile.checksum(buffer, weightsStart, length)) {
+				throw new IOException(file + " is corrupt, the weights do not match their checksum");
+			}
+			return new QuantizedNetwork(weights, scales, feedCounts, layerCounts, biases, activations, properties);
+		} catch (RuntimeException e) {
+			throw new IOException(file + " is not a valid " + EXTENSION + " model: " + e, e);
+		}
+	}
+
+	/*
+	 * How the quantized network's decisions compare with the float
+	 * network's on every sample of a training set.
+	 */
+	public static Comparison compare(BasicNetwork network, QuantizedNetwork quantized, TrainingData data) {
+		var forward = new BatchForwardPass(network);
+		var encoding = InputEncoding.of(network);
+		int columns = encoding.columns(network.getInputCount());
+		var input = new double[network.getInputCount()];
+		var floatOutput = new double[network.getOutputCount()];
+		var quantizedOutput = new double[network.getOutputCount()];
+		var result = new Comparison();
+		for (int i = 0; i < data.size(); i++) {
+			if (encoding == InputEncoding.GAPS) {
+				data.getGapFeatures(i, columns, input);
+			} else {
+				data.getInput(i, columns, input);
+			}
+			forward.compute(input, floatOutput);
+			quantized.compute(input, quantizedOutput);
+			int label = data.getAction(i) < 0 ? -1 : 1;
+			int floatMove = floatOutput[1] > floatOutput[0] ? 1 : -1;
+			int quantizedMove = quantizedOutput[1] > quantizedOutput[0] ? 1 : -1;
+			result.samples++;
+			if (floatMove == label) result.floatCorrect++;
+			if (quantizedMove == label) result.quantizedCorrect++;
+			if (floatMove == quantizedMove) result.agreements++;
+			for (int o = 0; o < floatOutput.length; o++) {
+				result.maxOutputError = Math.max(result.maxOutputError, Math.abs(floatOutput[o] - quantizedOutput[o]));
+			}
+		}
+		return result;
+	}
+
+	public static class Comparison {
+		private int samples;
+		private int floatCorrect;
+		private int quantizedCorrect;
+		private int agreements;
+		private double maxOutputError;
+
+		public double getFloatAccuracy() {
+			return (double) floatCorrect / samples;
+		}
+
+		public double getQuantizedAccuracy() {
+			return (double) quantizedCorrect / samples;
+		}
+
+		//Fraction of samples where both networks made the same move
+		public double getAgreement() {
+			return (double) agreements / samples;
+		}
+
+		public double getMaxOutputError() {
+			return maxOutputError;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d samples: float %.2f%% correct, int8 %.2f%% correct (%+.2f points), same move %.2f%%, largest output error %.2e",
+					samples, getFloatAccuracy() * 100, getQuantizedAccuracy() * 100,
+					(getQuantizedAccuracy() - getFloatAccuracy()) * 100, getAgreement() * 100, maxOutputError);
+		}
+	}
+
+	/*
+	 * Quantizes the saved network, writes resources/neural_network.nnq and
+	 * reports how much it changes: accuracy on the training CSV, survival
+	 * in the same headless games and decisions per second, float vs int8.
+	 * Usage: java ie.atu.sw.QuantizedNetwork [network] [csv] [games] [maxTicks]
+	 */
+	public static void main(String[] args) throws Exception {
+		var in = Paths.get(args.length > 0 ? args[0] : NeuralNetworkController.NETWORK_FILE);
+		var csv = Paths.get(args.length > 1 ? args[1] : "resources/training_data.csv");
+		int games = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		long maxTicks = args.length > 3 ? Long.parseLong(args[3]) : 10_000;
+
+		var network = ModelFile.readAny(in);
+		var quantized = quantize(network);
+		var out = Paths.get(FILE);
+		quantized.write(out);
+		System.out.println(String.format("%s (%d bytes) -> %s (%d bytes, %d bytes of weights)",
+				in, new File(in.toString()).length(), out, Files.size(out), quantized.getWeightBytes()));
+
+		//Read back, so everything below runs on what was saved
+		quantized = read(out);
+		var encoding = InputEncoding.of(network);
+		int columns = encoding.columns(network.getInputCount());
+		var data = Files.exists(csv) ? TrainingData.load(csv, columns) : null;
+		if (data != null && data.size() > 0) {
+			System.out.println("Training data: " + compare(network, quantized, data));
+			benchmark(network, quantized, data, encoding, columns);
+		}
+
+		var floatReport = new BatchEvaluator(network).evaluate(games, 0, maxTicks);
+		var model = quantized;
+		var quantizedReport = new BatchEvaluator(model::toPilot, Runtime.getRuntime().availableProcessors())
+				.evaluate(games, 0, maxTicks);
+		System.out.println(String.format("Survival over %d games: float mean %.1f ticks (p50 %d, %d survived), int8 mean %.1f ticks (p50 %d, %d survived)",
+				games, floatReport.getMeanSurvival(), floatReport.percentile(50), floatReport.getSurvivors(),
+				quantizedReport.getMeanSurvival(), quantizedReport.percentile(50), quantizedReport.getSurvivors()));
+	}
+
+	//Decisions per second on the training inputs, batched, float vs int8
+	private static void benchmark(BasicNetwork network, QuantizedNetwork quantized, TrainingData data,
+			InputEncoding encoding, int columns) {
+		int size = network.getInputCount();
+		int count = Math.min(data.size(), 4096);
+		var inputs = new double[count * size];
+		var input = new double[size];
+		for (int i = 0; i < count; i++) {
+			if (encoding == InputEncoding.GAPS) {
+				data.getGapFeatures(i, columns, input);
+			} else {
+				data.getInput(i, columns, input);
+			}
+			System.arraycopy(input, 0, inputs, i * size, size);
+		}
+		var outputs = new double[count * network.getOutputCount()];
+		var forward = new BatchForwardPass(network);
+		double floatRate = 0, quantizedRate = 0;
+		for (int round = 0; round < 5; round++) { //The first rounds warm up the JIT, the last one counts
+			long start = System.nanoTime();
+			for (int r = 0; r < 50; r++) forward.compute(inputs, outputs, count);
+			floatRate = 50.0 * count / ((System.nanoTime() - start) / 1e9);
+			start = System.nanoTime();
+			for (int r = 0; r < 50; r++) quantized.compute(inputs, outputs, count);
+			quantizedRate = 50.0 * count / ((System.nanoTime() - start) / 1e9);
+		}
+		System.out.println(String.format("Decisions per second on one thread: float %.0f, int8 %.0f (%.2fx)",
+				floatRate, quantizedRate, quantizedRate / floatRate));
+	}
+}
@@ -0,0 +1,55 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * The original cavern: the roof and the floor each take a random step up
+ * or down every column, keeping at least MIN_SPACE rows open between
+ * them. Backed by a SplittableRandom, so a seed always gives the same
+ * cavern.
+ */
+public class RandomWalkGenerator implements CavernGenerator {
+	public static final String NAME = "random-walk";
+
+	private static final int MIN_TOP 	= 2;
+	private static final int MIN_BOTTOM = 18;
+	private static final int MIN_SPACE 	= 4; //Smaller values will create a cave with smaller spaces
+
+	private static final byte ONE_SET 	=  1;
+	private static final byte ZERO_SET 	=  0;
+
+	private SplittableRandom random;
+	private int prevTop = MIN_TOP;
+	private int prevBot = MIN_BOTTOM;
+
+	@Override
+	public void reset(long seed) {
+		random = new SplittableRandom(seed);
+		prevTop = MIN_TOP;
+		prevBot = MIN_BOTTOM;
+	}
+
+	@Override
+	public void nextColumn(byte[] model, int offset) {
+		Arrays.fill(model, offset, offset + MODEL_HEIGHT, ONE_SET); //Fill everything in
+
+		//Flip a coin to determine if we could grow or shrink the cave
+		prevTop += random.nextBoolean() ? 1 : -1;
+		prevBot += random.nextBoolean() ? 1 : -1;
+		prevTop = max(MIN_TOP, min(prevTop, prevBot - MIN_SPACE));
+		prevBot = min(MIN_BOTTOM, max(prevBot, prevTop + MIN_SPACE));
+
+		//Fill in the array with the carved area
+		Arrays.fill(model, offset + prevTop, offset + prevBot, ZERO_SET);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+}
@@ -0,0 +1,140 @@
+package ie.atu.sw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+ * A recording of one game: the cavern generator and seed, which between
+ * them fix every column of the cavern, and the move made on every tick.
+ * Nothing else is needed to play the game again exactly.
+ *
+ * File layout (big-endian, as written by DataOutputStream):
+ *   int     magic "RPL1"
+ *   int     version
+ *   UTF     generator name
+ *   long    seed
+ *   int     ticks
+ *   boolean crashed on the last tick
+ *   byte    the net move of each tick, ticks of them
+ *
+ * A move is the sum of every step taken since the previous tick's
+ * collision check, so manual play with several key presses in one tick
+ * replays exactly too. That is one byte per tick, 600 bytes a minute.
+ */
+public class Replay {
+	private static final int MAGIC 		= 0x52504C31; //"RPL1"
+	private static final int VERSION 	= 1;
+
+	private final String generator;
+	private final long seed;
+	private byte[] moves;
+	private int ticks;
+	private boolean crashed;
+
+	public Replay(String generator, long seed) {
+		this(generator, seed, new byte[256], 0, false);
+	}
+
+	private Replay(String generator, long seed, byte[] moves, int ticks, boolean crashed) {
+		this.generator = generator;
+		this.seed = seed;
+		this.moves = moves;
+		this.ticks = ticks;
+		this.crashed = crashed;
+	}
+
+	//Appends the move made on the next tick
+	void add(int move, boolean crashed) {
+		if (ticks == moves.length) moves = Arrays.copyOf(moves, ticks * 2);
+		moves[ticks++] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, move));
+		this.crashed = crashed;
+	}
+
+	public String getGenerator() {
+		return generator;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public int getTicks() {
+		return ticks;
+	}
+
+	public boolean isCrashed() {
+		return crashed;
+	}
+
+	//The move made on the given tick, counting from 1 like Simulation.getTime()
+	public int getMove(long tick) {
+		return tick >= 1 && tick <= ticks ? moves[(int) (tick - 1)] : 0;
+	}
+
+	//A fresh simulation on the recorded cavern, ready for tick 1
+	public Simulation newSimulation() {
+		return new Simulation(CavernGenerator.forName(generator), seed);
+	}
+
+	//A pilot that makes the recorded moves
+	public Pilot toPilot() {
+		return sim -> getMove(sim.getTime());
+	}
+
+	/*
+	 * Plays the recorded moves back on a new simulation and returns the
+	 * tick it ended on. If the game is deterministic, that is getTicks()
+	 * and the plane has crashed exactly when isCrashed() says it did.
+	 */
+	public Simulation play() {
+		var sim = newSimulation();
+		sim.run(toPilot(), ticks);
+		return sim;
+	}
+
+	//True if playing the replay back ends the same way as the recording
+	public boolean verify() {
+		var sim = play();
+		return sim.getTime() == ticks && sim.isCrashed() == crashed;
+	}
+
+	public void write(Path file) throws IOException {
+		if (file.getParent() != null) Files.createDirectories(file.getParent());
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(generator);
+			out.writeLong(seed);
+			out.writeInt(ticks);
+			out.writeBoolean(crashed);
+			out.write(moves, 0, ticks);
+		}
+	}
+
+	public static Replay read(Path file) throws IOException {
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) throw new IOException(file + " is not a replay file");
+			int version = in.readInt();
+			if (version != VERSION) throw new IOException(file + " is replay version " + version + ", expected " + VERSION);
+
+			var generator = in.readUTF();
+			long seed = in.readLong();
+			int ticks = in.readInt();
+			boolean crashed = in.readBoolean();
+			var moves = new byte[Math.max(ticks, 1)];
+			in.readFully(moves, 0, ticks);
+			return new Replay(generator, seed, moves, ticks, crashed);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return generator + " seed=" + seed + " ticks=" + ticks + (crashed ? " (crashed)" : "");
+	}
+}
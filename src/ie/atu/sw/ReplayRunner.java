@@ -0,0 +1,79 @@
+package ie.atu.sw;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/*
+ * Plays replay files back with no GUI, as fast as the CPU allows. Each
+ * replay is first played with its recorded moves to check that it ends
+ * the same way as the recording. Then every network given on the command
+ * line flies the same cavern, so the networks can be compared on exactly
+ * the cavern that one of them crashed in, e.g. to bisect a regression
+ * across saved network versions.
+ *
+ * Usage: java ie.atu.sw.ReplayRunner <replay file or directory> [network.eg ...]
+ */
+public class ReplayRunner {
+	private static final long MIN_TICKS = 10_000; //How long a network may fly a replayed cavern
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: java ie.atu.sw.ReplayRunner <replay file or directory> [network.eg ...]");
+			return;
+		}
+
+		List<Path> replays = new ArrayList<>();
+		var path = Paths.get(args[0]);
+		if (Files.isDirectory(path)) {
+			try (Stream<Path> files = Files.list(path)) {
+				files.filter(f -> f.toString().endsWith(".replay")).sorted().forEach(replays::add);
+			}
+		} else {
+			replays.add(path);
+		}
+
+		List<String> names = new ArrayList<>();
+		List<Pilot> pilots = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			var controller = new NeuralNetworkController();
+			if (!controller.loadNetwork(new File(args[i]))) {
+				System.err.println("Could not load " + args[i]);
+				return;
+			}
+			names.add(args[i]);
+			pilots.add(controller.toPilot());
+		}
+
+		long totalTicks = 0;
+		int mismatches = 0;
+		long start = System.nanoTime();
+		for (var file : replays) {
+			var replay = Replay.read(file);
+			var sim = replay.play();
+			totalTicks += sim.getTime();
+			boolean same = sim.getTime() == replay.getTicks() && sim.isCrashed() == replay.isCrashed();
+			if (!same) mismatches++;
+			System.out.println(file.getFileName() + ": " + replay + (same ? " - replays exactly"
+					: " - MISMATCH, ended at tick " + sim.getTime() + (sim.isCrashed() ? " (crashed)" : "")));
+
+			long maxTicks = Math.max(MIN_TICKS, replay.getTicks());
+			for (int i = 0; i < pilots.size(); i++) {
+				sim = replay.newSimulation();
+				long survived = sim.run(pilots.get(i), maxTicks);
+				totalTicks += survived;
+				System.out.println(String.format("  %-40s %s at tick %d", names.get(i),
+						sim.isCrashed() ? "crashed" : "survived", survived));
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(replays.size() + " replays, " + mismatches + " mismatches, "
+				+ String.format("%.0f", totalTicks / seconds) + " ticks/s");
+	}
+}
@@ -0,0 +1,350 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * The game itself: the cavern model, the cavern generator, the player
+ * position and crash detection. There is nothing from AWT or Swing in
+ * here, so a game can be driven as fast as the CPU allows by calling
+ * tick() in a loop. GameView is just a renderer over one of these.
+ *
+ * The cavern comes from a CavernGenerator and depends only on the seed,
+ * so a game can be recorded as a Replay (the seed and the move made on
+ * every tick) and played again exactly.
+ */
+public class Simulation {
+	public static final int MODEL_WIDTH 		= 30;
+	public static final int MODEL_HEIGHT 		= 20;
+	public static final int PLAYER_COLUMN 		= 15;
+	public static final int GAME_STATE_SIZE 	= 3 * MODEL_HEIGHT + 1;
+	public static final int HORIZON_COLUMNS 	= 10;
+	public static final int HORIZON_SIZE 		= HORIZON_COLUMNS * MODEL_HEIGHT;
+
+	private static final int START_ROW 			= 11;
+
+	private static final byte ZERO_SET 			=  0;
+
+	/*
+	 * The 30x20 game grid is a ring buffer of 30 columns of 20 bytes,
+	 * laid out column after column in one flat array. Column x of the
+	 * grid lives at ((head + x) % MODEL_WIDTH) * MODEL_HEIGHT, so the
+	 * cavern scrolls by overwriting the oldest column and moving head
+	 * on by one, with no allocation or copying.
+	 */
+	private final byte[] model = new byte[MODEL_WIDTH * MODEL_HEIGHT];
+	private int head;
+
+	/*
+	 * The open gap of each column, indexed like the columns of the ring.
+	 * A column's gap is found once, when the column scrolls in, so the
+	 * GAPS features of the horizon are just read from here.
+	 */
+	private final byte[] gapTop = new byte[MODEL_WIDTH];
+	private final byte[] gapBottom = new byte[MODEL_WIDTH];
+	private final int[] walls = new int[MODEL_WIDTH]; //The cells of each column as a bit mask, bit r = row r
+
+	private final CavernGenerator generator;
+	private final SplittableRandom seeds; //Seeds for the games after a plain reset()
+	private long seed;
+	private int playerRow = START_ROW;
+	private long time;
+	private boolean crashed;
+
+	//The game being recorded, if any, and the moves made since the last tick
+	private Replay replay;
+	private int pendingMove;
+
+	//A random cavern. getSeed() says which, so it can still be replayed.
+	public Simulation() {
+		this(new SplittableRandom().nextLong());
+	}
+
+	//The same seed always produces the same cavern
+	public Simulation(long seed) {
+		this(new RandomWalkGenerator(), seed);
+	}
+
+	public Simulation(CavernGenerator generator, long seed) {
+		this.generator = generator;
+		this.seeds = new SplittableRandom(seed);
+		reset(seed);
+	}
+
+	/*
+	 * Plays one tick of the game: scroll the cavern, ask the pilot for
+	 * a move and then check for a crash. Returns false once the game is
+	 * over. A null pilot just lets the plane drift.
+	 */
+	public boolean tick(Pilot pilot) {
+		if (crashed) return false;
+
+		advance();
+		if (pilot != null) move(pilot.nextMove(this));
+		return !checkCollision();
+	}
+
+	/*
+	 * Plays until the plane crashes or maxTicks have elapsed and returns
+	 * the number of ticks survived.
+	 */
+	public long run(Pilot pilot, long maxTicks) {
+		while (time < maxTicks && tick(pilot));
+		return time;
+	}
+
+	//Moves the clock on and scrolls the next column of the cavern into view
+	public void advance() {
+		if (crashed) return;
+		time++;
+		generateNext();
+	}
+
+	//Move the plane up or down
+	public void move(int step) {
+		if (crashed) return;
+		playerRow += step;
+		if (replay != null) pendingMove += step;
+	}
+
+	/*
+	 * The plane crashes when it occupies the same cell as a wall. Flying
+	 * off the top or bottom of the grid is also treated as a crash.
+	 */
+	public boolean checkCollision() {
+		if (!crashed) {
+			crashed = playerRow < 0 || playerRow >= MODEL_HEIGHT
+					|| model[offset(PLAYER_COLUMN) + playerRow] != 0;
+		}
+		if (replay != null && time > replay.getTicks()) {
+			while (replay.getTicks() < time - 1) replay.add(0, false); //A tick that was never checked
+			replay.add(pendingMove, crashed);
+			pendingMove = 0;
+		}
+		return crashed;
+	}
+
+	public boolean isCrashed() {
+		return crashed;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public int getPlayerRow() {
+		return playerRow;
+	}
+
+	//The seed of the current game
+	public long getSeed() {
+		return seed;
+	}
+
+	public CavernGenerator getGenerator() {
+		return generator;
+	}
+
+	/*
+	 * Starts recording the current game, which must not have started yet.
+	 * Every tick's moves are added to the replay when the tick's collision
+	 * is checked. Recording stops at the next reset.
+	 */
+	public Replay startReplay() {
+		if (time != 0) throw new IllegalStateException("A replay has to start before the first tick");
+		replay = new Replay(generator.getName(), seed);
+		pendingMove = 0;
+		return replay;
+	}
+
+	//The game being recorded, or null
+	public Replay getReplay() {
+		return replay;
+	}
+
+	//Returns the value of the cell at the given column and row of the grid
+	public byte get(int col, int row) {
+		return model[offset(col) + row];
+	}
+
+	//The first open row of the gap in the given grid column
+	public int getGapTop(int col) {
+		return gapTop[physical(col)];
+	}
+
+	//One past the last open row of the gap in the given grid column
+	public int getGapBottom(int col) {
+		return gapBottom[physical(col)];
+	}
+
+	//The cells of the given grid column as a bit mask, bit r = row r
+	public int getColumnMask(int col) {
+		return walls[physical(col)];
+	}
+
+	/*
+	 * The cells of up to 3 columns ahead of the plane packed into a long,
+	 * bit r of the c-th column being bit c * MODEL_HEIGHT + r. Together
+	 * with the player row this is the whole CELLS input of a 3 column
+	 * network, so it can key a DecisionCache exactly.
+	 */
+	public long packHorizon(int columns) {
+		if (columns * MODEL_HEIGHT > Long.SIZE) throw new IllegalArgumentException(columns + " columns do not fit in a long");
+		long packed = 0;
+		for (int c = 0; c < columns; c++) {
+			packed |= (long) walls[physical(PLAYER_COLUMN + 1 + c)] << (c * MODEL_HEIGHT);
+		}
+		return packed;
+	}
+
+	//Index of the first cell of the given grid column in the ring buffer
+	private int offset(int col) {
+		return physical(col) * MODEL_HEIGHT;
+	}
+
+	//Column of the ring buffer that holds the given grid column
+	private int physical(int col) {
+		int physical = head + col;
+		if (physical >= MODEL_WIDTH) physical -= MODEL_WIDTH;
+		return physical;
+	}
+
+	/*
+	 * Returns a snapshot of the 30x20 matrix of values that make up the
+	 * game grid, flatmapped into a single dimension double array.
+	 */
+	public double[] sample() {
+		var vector = new double[MODEL_WIDTH * MODEL_HEIGHT];
+		var index = 0;
+
+		for (int col = 0; col < MODEL_WIDTH; col++) {
+			int offset = offset(col);
+			for (int row = 0; row < MODEL_HEIGHT; row++) {
+				vector[index] = model[offset + row];
+				index++;
+			}
+		}
+		return vector;
+	}
+
+	// Sample horizon (10 columns ahead) - for training data collection
+	public double[] sampleHorizon() {
+		return sampleColumnsAhead(HORIZON_COLUMNS);
+	}
+
+	//Copies the same HORIZON_SIZE cells as sampleHorizon() into dst, starting at offset
+	public void copyHorizon(byte[] dst, int offset) {
+		for (int col = PLAYER_COLUMN + 1; col <= PLAYER_COLUMN + HORIZON_COLUMNS; col++) {
+			System.arraycopy(model, offset(col), dst, offset, MODEL_HEIGHT);
+			offset += MODEL_HEIGHT;
+		}
+	}
+
+	// Sample simplified horizon (3 columns ahead) - for neural network prediction
+	public double[] sampleSimplifiedHorizon() {
+		return sampleColumnsAhead(3);
+	}
+
+	private double[] sampleColumnsAhead(int horizonColumns) {
+		double[] vector = new double[horizonColumns * MODEL_HEIGHT];
+		int vectorIndex = 0;
+
+		for (int col = PLAYER_COLUMN + 1; col < Math.min(PLAYER_COLUMN + horizonColumns + 1, MODEL_WIDTH); col++) {
+			int offset = offset(col);
+			for (int row = 0; row < MODEL_HEIGHT; row++) {
+				vector[vectorIndex] = model[offset + row];
+				vectorIndex++;
+			}
+		}
+		return vector;
+	}
+
+	// Create simplified game state for neural network (61 inputs total)
+	public double[] createGameState() {
+		return createGameState(new double[GAME_STATE_SIZE]);
+	}
+
+	/*
+	 * Writes the game state into a caller supplied buffer of at least
+	 * GAME_STATE_SIZE values and returns it, so the autopilot can build
+	 * its input every tick without allocating.
+	 */
+	public double[] createGameState(double[] gameState) {
+		return createGameState(gameState, 3);
+	}
+
+	//The same, but for a network that looks the given number of columns ahead
+	public double[] createGameState(double[] gameState, int columns) {
+		int vectorIndex = 0;
+		for (int col = PLAYER_COLUMN + 1; col <= PLAYER_COLUMN + columns; col++) { // 3 columns = 60 values
+			int offset = offset(col);
+			for (int row = 0; row < MODEL_HEIGHT; row++) {
+				gameState[vectorIndex] = model[offset + row];
+				vectorIndex++;
+			}
+		}
+		gameState[vectorIndex] = (double) playerRow / MODEL_HEIGHT; // Normalized player position
+
+		return gameState;
+	}
+
+	/*
+	 * Writes the InputEncoding.GAPS input for the given number of columns
+	 * ahead (4 values per column, then the player position) into dst and
+	 * returns it.
+	 */
+	public double[] createGapFeatures(double[] dst, int columns) {
+		int index = 0;
+		for (int col = PLAYER_COLUMN + 1; col <= PLAYER_COLUMN + columns; col++) {
+			int p = physical(col);
+			InputEncoding.writeGap(dst, index, gapTop[p], gapBottom[p], playerRow);
+			index += 4;
+		}
+		dst[index] = (double) playerRow / MODEL_HEIGHT;
+		return dst;
+	}
+
+	/*
+	 * Generate the next layer of the cavern. The oldest column at the
+	 * head of the ring becomes the new tail and the generator fills it in.
+	 */
+	private void generateNext() {
+		int physical = head;
+		int next = physical * MODEL_HEIGHT;
+		head = (head == MODEL_WIDTH - 1) ? 0 : head + 1; //Move the head to the tail
+		generator.nextColumn(model, next);
+
+		int gap = InputEncoding.findGap(model, next);
+		gapTop[physical] = (byte) gap;
+		gapBottom[physical] = (byte) (gap >>> 8);
+
+		int mask = 0;
+		for (int row = 0; row < MODEL_HEIGHT; row++) {
+			if (model[next + row] != 0) mask |= 1 << row;
+		}
+		walls[physical] = mask;
+	}
+
+	//Starts a new game on a new cavern, with the next seed in this simulation's sequence
+	public void reset() {
+		reset(seeds.nextLong());
+	}
+
+	/*
+	 * Zeroes out the grid, centres the plane, resets the clock and starts
+	 * the generator from the given seed, so a simulation can be reused.
+	 */
+	public void reset(long seed) {
+		this.seed = seed;
+		generator.reset(seed);
+		Arrays.fill(model, ZERO_SET);
+		Arrays.fill(gapTop, (byte) 0); //The empty grid is one big gap
+		Arrays.fill(gapBottom, (byte) MODEL_HEIGHT);
+		Arrays.fill(walls, 0);
+		playerRow = START_ROW;
+		time = 0;
+		crashed = false;
+		replay = null;
+		pendingMove = 0;
+	}
+}
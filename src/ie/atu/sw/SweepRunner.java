@@ -0,0 +1,203 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * Trains every combination of a grid of network topologies and training
+ * settings in parallel, one single-threaded job per core, and ranks them
+ * by how long the trained plane survives in headless games and then by
+ * the error on a held-out validation split. The training data is loaded
+ * once and every job trains on a read-only view of it, so memory does
+ * not grow with the number of jobs. Every job is flown through the same
+ * seeded caverns so the survival times are comparable.
+ *
+ * Usage: java ie.atu.sw.SweepRunner [key=value1,value2 ...]
+ *   hidden=40,80,120        Hidden layer sizes
+ *   columns=2,3,5           Horizon widths (1 to 10 columns ahead of the plane)
+ *   inputs=cells,gaps       Input encodings (raw cells or per-column gap features)
+ *   mode=rprop,adam         Training modes
+ *   target=0.01             Target errors
+ *   epochs=500              Maximum epochs
+ *   minutes=2               Time limit per job
+ *   seed=1                  Seed for the weights, the shuffle and the caverns
+ *   validation=0.2          Fraction of the samples held out for validation, after deduplicating
+ *   games=200 ticks=5000    Headless games per job and the tick limit per game
+ *   threads=<cores>         Jobs run at once
+ *   out=resources/sweep_leaderboard.csv
+ */
+public class SweepRunner {
+	private static final String TRAINING_DATA = "resources/training_data.csv";
+
+	//One point of the grid and, once it has run, its scores
+	private static class Job {
+		private final int hidden;
+		private final int columns;
+		private final InputEncoding encoding;
+		private final TrainingConfig config;
+
+		private double trainError;
+		private double validationError;
+		private int epochs;
+		private double seconds;
+		private BatchEvaluator.Report survival;
+
+		private Job(int hidden, int columns, InputEncoding encoding, TrainingConfig config) {
+			this.hidden = hidden;
+			this.columns = columns;
+			this.encoding = encoding;
+			this.config = config;
+		}
+
+		@Override
+		public String toString() {
+			return "hidden=" + hidden + " columns=" + columns + " inputs=" + encoding + " " + config.getMode()
+					+ " target=" + config.getTargetError() + " epochs=" + config.getMaxEpochs();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) throw new IllegalArgumentException("Expected key=value, got " + arg);
+			options.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+
+		int[] hiddenSizes = ints(options.getOrDefault("hidden", "40,80,120"));
+		int[] columnCounts = ints(options.getOrDefault("columns", "2,3,5"));
+		String[] encodings = options.getOrDefault("inputs", "cells").split(",");
+		String[] modes = options.getOrDefault("mode", "rprop").split(",");
+		double[] targets = doubles(options.getOrDefault("target", "0.01"));
+		int[] maxEpochs = ints(options.getOrDefault("epochs", "500"));
+		long timeLimit = (long) (Double.parseDouble(options.getOrDefault("minutes", "2")) * 60_000);
+		long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+		double validation = Double.parseDouble(options.getOrDefault("validation", "0.2"));
+		int games = Integer.parseInt(options.getOrDefault("games", "200"));
+		long ticks = Long.parseLong(options.getOrDefault("ticks", "5000"));
+		int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		Path out = Paths.get(options.getOrDefault("out", "resources/sweep_leaderboard.csv"));
+
+		List<Job> jobs = new ArrayList<>();
+		for (int hidden : hiddenSizes) {
+			for (int columns : columnCounts) {
+				for (String inputs : encodings) {
+					for (String mode : modes) {
+						for (double target : targets) {
+							for (int epochs : maxEpochs) {
+								var encoding = InputEncoding.valueOf(inputs.trim().toUpperCase());
+								var config = new TrainingConfig();
+								config.setMode(TrainingConfig.Mode.valueOf(mode.trim().toUpperCase()));
+								config.setEncoding(encoding);
+								config.setThreads(1); //The jobs themselves use the cores
+								config.setSeed(seed);
+								config.setTargetError(target);
+								config.setMaxEpochs(epochs);
+								config.setTimeLimitMillis(timeLimit);
+								config.setProgressInterval(0);
+								jobs.add(new Job(hidden, columns, encoding, config));
+							}
+						}
+					}
+				}
+			}
+		}
+
+		int widest = 0;
+		for (int columns : columnCounts) widest = Math.max(widest, columns);
+		var loaded = TrainingData.load(Paths.get(TRAINING_DATA), widest);
+		var preparation = new TrainingConfig();
+		preparation.setSeed(seed);
+		preparation.setThreads(threads);
+		preparation.setValidationFraction(validation);
+		var prepared = new DataPreparation(preparation).prepare(loaded);
+		var data = prepared.getData();
+		int trainSize = prepared.getTrainSize();
+		if (trainSize < 1 || prepared.getValidationSize() < 1) {
+			System.err.println("Not enough training data for a sweep");
+			return;
+		}
+		System.out.println("Prepared " + prepared);
+		System.out.println("Sweeping " + jobs.size() + " configurations on " + threads + " threads: "
+				+ trainSize + " training and " + prepared.getValidationSize() + " validation samples");
+
+		var pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		try {
+			pool.submit(() -> jobs.parallelStream().forEach(job -> run(job, data, trainSize, seed, games, ticks))).get();
+		} finally {
+			pool.shutdown();
+		}
+		System.out.println(String.format("Sweep finished in %.1f seconds", (System.nanoTime() - start) / 1e9));
+
+		//Longest survival first, then lowest validation error
+		jobs.sort(Comparator.<Job>comparingLong(j -> j.survival.percentile(50)).reversed()
+				.thenComparing(Comparator.<Job>comparingDouble(j -> j.survival.getMeanSurvival()).reversed())
+				.thenComparingDouble(j -> j.validationError));
+		writeLeaderboard(out, jobs);
+
+		System.out.println("Leaderboard written to " + out);
+		for (int i = 0; i < Math.min(10, jobs.size()); i++) {
+			var job = jobs.get(i);
+			System.out.println(String.format("%2d. %s: survival p50=%d mean=%.1f, validation error=%.6f",
+					i + 1, job, job.survival.percentile(50), job.survival.getMeanSurvival(), job.validationError));
+		}
+	}
+
+	private static void run(Job job, TrainingData data, int trainSize, long seed, int games, long ticks) {
+		try {
+			long start = System.nanoTime();
+			var controller = new NeuralNetworkController();
+			controller.createNetwork((int) seed, job.encoding, job.columns, job.hidden);
+			job.trainError = controller.train(data.toDataSet(0, trainSize, job.columns, job.encoding), job.config);
+			job.epochs = controller.getLastEpochs();
+			job.seconds = (System.nanoTime() - start) / 1e9;
+			job.validationError = controller.getNetwork().calculateError(data.toDataSet(trainSize, data.size(), job.columns, job.encoding));
+			job.survival = new BatchEvaluator(controller.getNetwork(), 1).evaluate(games, seed, ticks);
+
+			System.out.println(String.format("Done %s: validation error=%.6f, survival p50=%d",
+					job, job.validationError, job.survival.percentile(50)));
+		} catch (Exception e) {
+			throw new IllegalStateException("Sweep job " + job + " failed", e);
+		}
+	}
+
+	private static void writeLeaderboard(Path out, List<Job> jobs) throws IOException {
+		if (out.getParent() != null) Files.createDirectories(out.getParent());
+		try (var pw = new PrintWriter(Files.newBufferedWriter(out))) {
+			pw.println("rank,hidden,columns,inputs,mode,target_error,max_epochs,epochs,train_seconds,train_error,validation_error,"
+					+ "survival_mean,survival_p50,survival_p90,survival_max");
+			int rank = 1;
+			for (var job : jobs) {
+				var s = job.survival;
+				pw.println(String.format("%d,%d,%d,%s,%s,%s,%d,%d,%.2f,%.6f,%.6f,%.1f,%d,%d,%d",
+						rank++, job.hidden, job.columns, job.encoding, job.config.getMode(), job.config.getTargetError(),
+						job.config.getMaxEpochs(), job.epochs, job.seconds, job.trainError, job.validationError,
+						s.getMeanSurvival(), s.percentile(50), s.percentile(90), s.percentile(100)));
+			}
+		}
+	}
+
+	private static int[] ints(String values) {
+		String[] parts = values.split(",");
+		int[] result = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) result[i] = Integer.parseInt(parts[i].trim());
+		return result;
+	}
+
+	private static double[] doubles(String values) {
+		String[] parts = values.split(",");
+		double[] result = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) result[i] = Double.parseDouble(parts[i].trim());
+		return result;
+	}
+}
@@ -0,0 +1,286 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.encog.neural.networks.BasicNetwork;
+import org.encog.neural.networks.training.propagation.TrainingContinuation;
+
+/*
+ * Everything needed to carry on a training run where it left off: the
+ * network being trained, the trainer's own state as Encog's
+ * TrainingContinuation (RPROP's step sizes and last gradients), how far
+ * it had got and the best weights on the validation set so far. The
+ * seed and split sizes of the prepared data are kept too, so a resumed
+ * run prepares the same split and only carries on if the data is the
+ * same size as before.
+ *
+ * File layout (.ckpt), all little-endian:
+ *   int     magic "NNC1"
+ *   short   version
+ *   short   reserved
+ *   long    seed
+ *   int     training samples, validation samples
+ *   int     epochs done, epoch of the best weights
+ *   double  best validation error, NaN if there is no validation set
+ *   int + bytes     the network, as a whole .nnm model
+ *   int + doubles   the best weights, -1 if there are none
+ *   short + UTF-8   the training type of the continuation, empty if none
+ *   int             continuation entries, then per entry:
+ *     short + UTF-8   key
+ *     int + doubles   value
+ *   int     CRC32 of everything before it
+ *
+ * Files are written beside their target and renamed into place, so a run
+ * killed mid-write leaves the previous checkpoint intact.
+ */
+public class TrainingCheckpoint {
+	public static final String EXTENSION = ".ckpt";
+
+	private static final int MAGIC 		= 0x31434E4E; //"NNC1" read little-endian
+	private static final short VERSION 	= 1;
+
+	private final long seed;
+	private final int trainSize;
+	private final int validationSize;
+	private final int epoch;
+	private final int bestEpoch;
+	private final double bestError;
+	private final BasicNetwork network;
+	private final double[] bestWeights;
+	private final TrainingContinuation continuation;
+
+	/*
+	 * The network and best weights are kept as they are, so pass copies
+	 * the trainer will not change. Continuation values are copied, as
+	 * Encog hands out its live arrays.
+	 */
+	public TrainingCheckpoint(long seed, int trainSize, int validationSize, int epoch, int bestEpoch, double bestError,
+			BasicNetwork network, double[] bestWeights, TrainingContinuation continuation) {
+		this.seed = seed;
+		this.trainSize = trainSize;
+		this.validationSize = validationSize;
+		this.epoch = epoch;
+		this.bestEpoch = bestEpoch;
+		this.bestError = bestError;
+		this.network = network;
+		this.bestWeights = bestWeights;
+		this.continuation = continuation == null ? null : copy(continuation);
+	}
+
+	private static TrainingContinuation copy(TrainingContinuation continuation) {
+		var copy = new TrainingContinuation();
+		copy.setTrainingType(continuation.getTrainingType());
+		for (var entry : continuation.getContents().entrySet()) {
+			if (!(entry.getValue() instanceof double[])) {
+				throw new IllegalArgumentException("Cannot checkpoint " + entry.getKey() + ", only double[] values");
+			}
+			copy.put(entry.getKey(), ((double[]) entry.getValue()).clone());
+		}
+		return copy;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	//Whether this checkpoint was made on a split of these sizes
+	public boolean matches(int trainSize, int validationSize) {
+		return this.trainSize == trainSize && this.validationSize == validationSize;
+	}
+
+	public int getEpoch() {
+		return epoch;
+	}
+
+	public int getBestEpoch() {
+		return bestEpoch;
+	}
+
+	public double getBestError() {
+		return bestError;
+	}
+
+	public BasicNetwork getNetwork() {
+		return network;
+	}
+
+	//Null if there was no validation set
+	public double[] getBestWeights() {
+		return bestWeights;
+	}
+
+	//Null if the trainer cannot be paused (only RPROP can)
+	public TrainingContinuation getContinuation() {
+		return continuation;
+	}
+
+	public void write(Path file) throws IOException {
+		var model = ModelFile.toBytes(network);
+		int size = 44 + model.length + 4 + 2 + 4 + 4; //Up to the model, the model, best weights, type, entries, CRC
+		if (bestWeights != null) size += bestWeights.length * 8;
+		if (continuation != null) {
+			size += continuation.getTrainingType().length() * 3; //UTF-8 is at most 3 bytes a char
+			for (var entry : continuation.getContents().entrySet()) {
+				size += 2 + entry.getKey().length() * 3 + 4 + ((double[]) entry.getValue()).length * 8;
+			}
+		}
+
+		var buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort((short) 0);
+		buffer.putLong(seed);
+		buffer.putInt(trainSize);
+		buffer.putInt(validationSize);
+		buffer.putInt(epoch);
+		buffer.putInt(bestEpoch);
+		buffer.putDouble(bestError);
+		buffer.putInt(model.length);
+		buffer.put(model);
+		putDoubles(buffer, bestWeights);
+		ModelFile.putString(buffer, continuation == null ? "" : continuation.getTrainingType());
+		buffer.putInt(continuation == null ? 0 : continuation.getContents().size());
+		if (continuation != null) {
+			for (var entry : continuation.getContents().entrySet()) {
+				ModelFile.putString(buffer, entry.getKey());
+				putDoubles(buffer, (double[]) entry.getValue());
+			}
+		}
+		buffer.putInt(ModelFile.checksum(buffer, 0, buffer.position()));
+
+		if (file.getParent() != null) Files.createDirectories(file.getParent());
+		var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			Files.write(tmp, Arrays.copyOf(buffer.array(), buffer.position()));
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	//Returns null if there is no checkpoint
+	public static TrainingCheckpoint read(Path file) throws IOException {
+		if (!Files.isRegularFile(file)) return null;
+
+		try (var channel = FileChannel.open(file)) {
+			var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.remaining() < 48 || buffer.getInt() != MAGIC) throw new IOException(file + " is not a training checkpoint");
+			int version = buffer.getShort();
+			if (version != VERSION) throw new IOException(file + " is checkpoint version " + version + ", expected " + VERSION);
+			int end = buffer.limit() - 4;
+			if (buffer.getInt(end) != ModelFile.checksum(buffer, 0, end)) throw new IOException(file + " is corrupt, it does not match its checksum");
+
+			buffer.getShort();
+			long seed = buffer.getLong();
+			int trainSize = buffer.getInt();
+			int validationSize = buffer.getInt();
+			int epoch = buffer.getInt();
+			int bestEpoch = buffer.getInt();
+			double bestError = buffer.getDouble();
+			int modelBytes = buffer.getInt();
+			var network = ModelFile.read(buffer.slice(buffer.position(), modelBytes), file);
+			buffer.position(buffer.position() + modelBytes);
+			var bestWeights = getDoubles(buffer);
+
+			TrainingContinuation continuation = null;
+			var type = ModelFile.getString(buffer);
+			int entries = buffer.getInt();
+			if (!type.isEmpty()) {
+				continuation = new TrainingContinuation();
+				continuation.setTrainingType(type);
+				for (int e = 0; e < entries; e++) continuation.put(ModelFile.getString(buffer), getDoubles(buffer));
+			}
+			if (buffer.position() != end) throw new IOException(file + " has " + (end - buffer.position()) + " bytes too many");
+			return new TrainingCheckpoint(seed, trainSize, validationSize, epoch, bestEpoch, bestError, network, bestWeights, continuation);
+		} catch (RuntimeException e) {
+			throw new IOException(file + " is not a valid training checkpoint: " + e, e);
+		}
+	}
+
+	private static void putDoubles(ByteBuffer buffer, double[] values) {
+		if (values == null) {
+			buffer.putInt(-1);
+			return;
+		}
+		buffer.putInt(values.length);
+		for (double value : values) buffer.putDouble(value);
+	}
+
+	private static double[] getDoubles(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) return null;
+		var values = new double[length];
+		for (int i = 0; i < length; i++) values[i] = buffer.getDouble();
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		var s = "epoch " + epoch;
+		if (bestWeights != null) s += String.format(", best validation error %.6f at epoch %d", bestError, bestEpoch);
+		return s;
+	}
+
+	/*
+	 * Writes checkpoints to one file on a background thread, so training
+	 * never waits for the disk. Only the newest checkpoint matters: one
+	 * saved while the last is still being written replaces any that has
+	 * not been started yet.
+	 */
+	public static class Writer implements AutoCloseable {
+		private final Path file;
+		private final AtomicReference<TrainingCheckpoint> pending = new AtomicReference<>();
+		private final Thread thread;
+		private volatile boolean closed;
+
+		public Writer(Path file) {
+			this.file = file;
+			thread = new Thread(this::drain, "checkpoint-writer");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		public void save(TrainingCheckpoint checkpoint) {
+			pending.set(checkpoint);
+			LockSupport.unpark(thread);
+		}
+
+		private void drain() {
+			while (true) {
+				var checkpoint = pending.getAndSet(null);
+				if (checkpoint == null) {
+					if (closed) break;
+					LockSupport.park(this);
+					continue;
+				}
+				try {
+					checkpoint.write(file);
+				} catch (IOException e) {
+					System.err.println("Failed to write checkpoint: " + e.getMessage());
+				}
+			}
+		}
+
+		//Waits for the last checkpoint saved to be written
+		@Override
+		public void close() {
+			closed = true;
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
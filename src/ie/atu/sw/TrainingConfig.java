@@ -0,0 +1,224 @@
+package ie.atu.sw;
+
+/*
+ * How NeuralNetworkController.trainNetwork() should prepare the data and
+ * train. The training defaults are the settings the controller has always
+ * used, except that RPROP now uses every core.
+ *
+ * The seed is fixed (DEFAULT_SEED unless set) and printed with the config,
+ * so it is always known which seed a run used. The seed fixes the weight
+ * initialisation, the data preparation and the mini-batch selection, and
+ * those are the same whatever the number of threads. Multi-threaded RPROP
+ * is the one thing that is not bit for bit repeatable: Encog adds up the
+ * gradients of its worker threads in whatever order they finish, so the
+ * rounding differs from run to run. setDeterministic(true) trains RPROP on
+ * one thread so that a run can be reproduced exactly; the data is still
+ * prepared in parallel. SGD and Adam are always single threaded.
+ *
+ * A run resumed from a checkpoint takes the seed the run started with,
+ * so it trains on the same split of the data.
+ */
+public class TrainingConfig implements Cloneable {
+	public enum Mode {
+		RPROP,	//Resilient propagation over the full training set
+		SGD,	//Mini-batch stochastic gradient descent with momentum
+		ADAM	//Mini-batch gradient descent with the Adam update rule
+	}
+
+	public static final long DEFAULT_SEED = 1;
+
+	private Mode mode = Mode.RPROP;
+	private InputEncoding encoding = InputEncoding.CELLS;
+	private int threads = 0; //0 lets Encog use every core (RPROP only)
+	private int batchSize = 64;
+	private double learningRate = 0; //0 picks the default for the mode
+	private double momentum = 0.9;
+	private long seed = DEFAULT_SEED;
+	private double targetError = 0.01;
+	private int maxEpochs = 3000;
+	private int maxStagnantEpochs = 200;
+	private long timeLimitMillis = 120_000;
+	private int progressInterval = 50; //Print progress every N epochs, 0 = silent
+	private boolean deduplicate = true; //Merge samples with the same input (see DataPreparation)
+	private boolean balance = true;     //As many UP as DOWN training samples
+	private double validationFraction = 0.1; //Held out of training to measure the network on
+	private boolean resume = true; //Carry on from the checkpoint of an unfinished run, if there is one
+	private long checkpointIntervalMillis = 10_000;
+	private boolean deterministic = false; //RPROP on one thread, so a run can be reproduced exactly
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	public InputEncoding getEncoding() {
+		return encoding;
+	}
+
+	public void setEncoding(InputEncoding encoding) {
+		this.encoding = encoding;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/*
+	 * Encog adds up rather than averages the gradients of a mini-batch,
+	 * so plain SGD diverges at the learning rate that suits Adam.
+	 */
+	public double getLearningRate() {
+		if (learningRate > 0) return learningRate;
+		return mode == Mode.SGD ? 0.00001 : 0.001;
+	}
+
+	public void setLearningRate(double learningRate) {
+		this.learningRate = learningRate;
+	}
+
+	public double getMomentum() {
+		return momentum;
+	}
+
+	public void setMomentum(double momentum) {
+		this.momentum = momentum;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public double getTargetError() {
+		return targetError;
+	}
+
+	public void setTargetError(double targetError) {
+		this.targetError = targetError;
+	}
+
+	public int getMaxEpochs() {
+		return maxEpochs;
+	}
+
+	public void setMaxEpochs(int maxEpochs) {
+		this.maxEpochs = maxEpochs;
+	}
+
+	public int getMaxStagnantEpochs() {
+		return maxStagnantEpochs;
+	}
+
+	public void setMaxStagnantEpochs(int maxStagnantEpochs) {
+		this.maxStagnantEpochs = maxStagnantEpochs;
+	}
+
+	public long getTimeLimitMillis() {
+		return timeLimitMillis;
+	}
+
+	public void setTimeLimitMillis(long timeLimitMillis) {
+		this.timeLimitMillis = timeLimitMillis;
+	}
+
+	public int getProgressInterval() {
+		return progressInterval;
+	}
+
+	public void setProgressInterval(int progressInterval) {
+		this.progressInterval = progressInterval;
+	}
+
+	public boolean isDeduplicate() {
+		return deduplicate;
+	}
+
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	public boolean isBalance() {
+		return balance;
+	}
+
+	public void setBalance(boolean balance) {
+		this.balance = balance;
+	}
+
+	public double getValidationFraction() {
+		return validationFraction;
+	}
+
+	public void setValidationFraction(double validationFraction) {
+		this.validationFraction = validationFraction;
+	}
+
+	public boolean isResume() {
+		return resume;
+	}
+
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	public long getCheckpointIntervalMillis() {
+		return checkpointIntervalMillis;
+	}
+
+	public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+		this.checkpointIntervalMillis = checkpointIntervalMillis;
+	}
+
+	public boolean isDeterministic() {
+		return deterministic;
+	}
+
+	public void setDeterministic(boolean deterministic) {
+		this.deterministic = deterministic;
+	}
+
+	//Threads RPROP should use, 0 = every core
+	public int getTrainerThreads() {
+		return deterministic ? 1 : threads;
+	}
+
+	//A separate config with the same settings
+	public TrainingConfig copy() {
+		try {
+			return (TrainingConfig) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		var s = mode + " seed=" + seed;
+		if (encoding != InputEncoding.CELLS) s += " inputs=" + encoding;
+		if (mode == Mode.RPROP) {
+			s += deterministic ? " threads=1 (deterministic)" : " threads=" + (threads == 0 ? "all" : threads);
+		} else {
+			s += " batch=" + batchSize + " rate=" + getLearningRate();
+			if (mode == Mode.SGD) s += " momentum=" + momentum;
+		}
+		return s;
+	}
+}
@@ -0,0 +1,505 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.HORIZON_COLUMNS;
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.encog.ml.data.MLDataSet;
+
+/*
+ * The recorded training samples, bit-packed in memory. Each CSV row has
+ * 202 fields: 200 horizon cells (10 columns x 20 rows), the player
+ * position and the action. Only the cells of the first few columns (3 by
+ * default, the ones the network sees), the position and the action are
+ * kept.
+ *
+ * Every cell is a 0 or a 1, so a sample's cells are packed one bit each
+ * into longs (bit f % 64 of word f / 64 is cell f), the position is kept
+ * as the player row in a byte and the action in another byte. Three
+ * columns are 10 bytes a sample rather than the 489 of a double[] row,
+ * so tens of millions of samples fit on one machine. The cells are only
+ * unpacked into doubles straight into the network's input buffer, by
+ * the TrainingDataSet views that Encog trains on. Lines whose cells are
+ * not 0 or 1, or whose position is not a row / MODEL_HEIGHT, are skipped.
+ *
+ * The CSV is parsed straight from bytes with no Strings or split(). The
+ * packed arrays are also written to a binary sidecar next to the CSV.
+ * Later loads map the sidecar and copy the arrays out in bulk, for as
+ * long as the size and modification time of the CSV match the ones
+ * recorded in its header.
+ *
+ * Once loaded, the samples are only read, so any number of training jobs
+ * can share one instance through toDataSet() views.
+ */
+public class TrainingData {
+	public static final int CSV_FIELDS 		= 202;
+	public static final int DEFAULT_COLUMNS = 3;
+
+	private static final int CACHE_MAGIC 	= 0x54444331; //"TDC1"
+	private static final int CACHE_VERSION 	= 3;
+	private static final int HEADER_BYTES 	= 4 + 4 + 4 + 8 + 8 + 4 + 4;
+
+	private final int columns; //Horizon columns kept per sample
+	private final int cells;   //columns * MODEL_HEIGHT cells, then the player position
+	private final int stride;  //Network inputs per sample: the cells and the position
+	private final int words;   //Longs of packed cells per sample
+	private long[] packed;     //size samples of words longs, one after the other
+	private byte[] rows;       //Player row, the position is row / MODEL_HEIGHT
+	private byte[] actions;    //-1 (UP) or 1 (DOWN)
+	private int size;
+	private int skipped;
+
+	private TrainingData(int columns, int capacity) {
+		if (columns < 1 || columns > HORIZON_COLUMNS) {
+			throw new IllegalArgumentException("Horizon must be 1 to " + HORIZON_COLUMNS + " columns, not " + columns);
+		}
+		this.columns = columns;
+		this.cells = columns * MODEL_HEIGHT;
+		this.stride = cells + 1;
+		this.words = (cells + Long.SIZE - 1) / Long.SIZE;
+		packed = new long[capacity * words];
+		rows = new byte[capacity];
+		actions = new byte[capacity];
+	}
+
+	public static TrainingData load(Path csv) throws IOException {
+		return load(csv, DEFAULT_COLUMNS);
+	}
+
+	/*
+	 * Loads the CSV keeping the given number of horizon columns, from its
+	 * binary cache if that is still valid. A new cache is written whenever
+	 * the CSV had to be parsed.
+	 */
+	public static TrainingData load(Path csv, int columns) throws IOException {
+		var cache = cachePath(csv, columns);
+		long csvSize = Files.size(csv);
+		long csvModified = Files.getLastModifiedTime(csv).toMillis();
+
+		var cached = readCache(cache, columns, csvSize, csvModified);
+		if (cached != null) return cached;
+
+		var data = parseCsv(csv, columns);
+		try {
+			data.writeCache(cache, csvSize, csvModified);
+		} catch (IOException e) {
+			System.err.println("Could not write training data cache: " + e.getMessage());
+		}
+		return data;
+	}
+
+	public static Path cachePath(Path csv, int columns) {
+		return csv.resolveSibling(csv.getFileName() + "." + columns + ".cache");
+	}
+
+	//Number of usable samples
+	public int size() {
+		return size;
+	}
+
+	//Number of CSV lines that were malformed or had no UP/DOWN action
+	public int getSkipped() {
+		return skipped;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	//Values per sample (the horizon cells and the player position)
+	public int getInputSize() {
+		return stride;
+	}
+
+	//Unpacks the network input of sample i into dst
+	public void getInput(int i, double[] dst) {
+		getInput(i, columns, dst);
+	}
+
+	/*
+	 * Unpacks the network input of sample i for a narrower horizon into
+	 * dst: the cells of the first columns, then the player position.
+	 */
+	public void getInput(int i, int columns, double[] dst) {
+		int n = columns * MODEL_HEIGHT;
+		int base = i * words;
+		for (int f = 0; f < n; f += Long.SIZE) {
+			long word = packed[base + (f >>> 6)];
+			int end = Math.min(n, f + Long.SIZE);
+			for (int b = f; b < end; b++) {
+				dst[b] = (word >>> b) & 1L; //Shifts only use the low 6 bits of b
+			}
+		}
+		dst[n] = getPosition(i);
+	}
+
+	/*
+	 * Writes the InputEncoding.GAPS input of sample i for the first
+	 * columns of its horizon into dst, worked out from the packed cells.
+	 */
+	public void getGapFeatures(int i, int columns, double[] dst) {
+		int row = rows[i];
+		for (int c = 0; c < columns; c++) {
+			int gap = InputEncoding.findGap(getColumn(i, c));
+			InputEncoding.writeGap(dst, c * 4, gap & 0xFF, gap >>> 8, row);
+		}
+		dst[columns * 4] = getPosition(i);
+	}
+
+	//The cells of column c of sample i as a MODEL_HEIGHT bit mask, bit r = row r
+	public int getColumn(int i, int c) {
+		int bit = c * MODEL_HEIGHT;
+		int base = i * words + (bit >>> 6);
+		int shift = bit & 63;
+		long bits = packed[base] >>> shift;
+		if (shift + MODEL_HEIGHT > Long.SIZE) bits |= packed[base + 1] << (Long.SIZE - shift); //Column straddles two words
+		return (int) bits & ((1 << MODEL_HEIGHT) - 1);
+	}
+
+	public double getInput(int i, int feature) {
+		if (feature == cells) return getPosition(i);
+		return (packed[i * words + (feature >>> 6)] >>> feature) & 1L;
+	}
+
+	public int getRow(int i) {
+		return rows[i];
+	}
+
+	public double getPosition(int i) {
+		return (double) rows[i] / MODEL_HEIGHT;
+	}
+
+	public int getAction(int i) {
+		return actions[i];
+	}
+
+	//Shuffles the samples, keeping every input paired with its own action
+	public void shuffle(Random random) {
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			for (int w = 0; w < words; w++) {
+				long tmp = packed[i * words + w];
+				packed[i * words + w] = packed[j * words + w];
+				packed[j * words + w] = tmp;
+			}
+			byte r = rows[i];
+			rows[i] = rows[j];
+			rows[j] = r;
+			byte a = actions[i];
+			actions[i] = actions[j];
+			actions[j] = a;
+		}
+	}
+
+	/*
+	 * A 64 bit hash of what the network sees of sample i, its cells and
+	 * row. Samples with equal inputs have equal hashes, whatever their
+	 * action.
+	 */
+	long inputHash(int i) {
+		long h = rows[i] * 0x9E3779B97F4A7C15L;
+		int base = i * words;
+		for (int w = 0; w < words; w++) {
+			h = (h ^ packed[base + w]) * 0xBF58476D1CE4E5B9L;
+			h ^= h >>> 31;
+		}
+		h *= 0x94D049BB133111EBL;
+		return h ^ (h >>> 29);
+	}
+
+	//True if samples i and j have the same cells and row
+	boolean sameInput(int i, int j) {
+		if (rows[i] != rows[j]) return false;
+		return Arrays.equals(packed, i * words, (i + 1) * words, packed, j * words, (j + 1) * words);
+	}
+
+	/*
+	 * A new set of the count samples listed in indices, in that order,
+	 * with their actions replaced by the given ones.
+	 */
+	TrainingData select(int[] indices, byte[] newActions, int count) {
+		var subset = new TrainingData(columns, count);
+		for (int k = 0; k < count; k++) {
+			int i = indices[k];
+			System.arraycopy(packed, i * words, subset.packed, k * words, words);
+			subset.rows[k] = rows[i];
+			subset.actions[k] = newActions[k];
+		}
+		subset.size = count;
+		subset.skipped = skipped;
+		return subset;
+	}
+
+	//All of the samples as an Encog data set, without copying them
+	public MLDataSet toDataSet() {
+		return toDataSet(0, size, columns);
+	}
+
+	/*
+	 * A read-only Encog view of samples from (inclusive) to to (exclusive)
+	 * that only sees the first columns of the horizon.
+	 */
+	public MLDataSet toDataSet(int from, int to, int columns) {
+		return toDataSet(from, to, columns, InputEncoding.CELLS);
+	}
+
+	//The same, with the inputs in the given encoding
+	public MLDataSet toDataSet(int from, int to, int columns, InputEncoding encoding) {
+		if (columns > this.columns) {
+			throw new IllegalArgumentException("Only " + this.columns + " horizon columns were loaded");
+		}
+		return new TrainingDataSet(this, from, to, columns, encoding);
+	}
+
+	//An empty set with room for capacity samples of the given horizon, e.g. a replay buffer
+	static TrainingData withCapacity(int columns, int capacity) {
+		return new TrainingData(columns, capacity);
+	}
+
+	/*
+	 * Overwrites sample i, or appends a sample if i is size(). The cells
+	 * are one MODEL_HEIGHT bit mask per horizon column (bit r = row r),
+	 * as Simulation.getColumnMask() gives them.
+	 */
+	void set(int i, int[] columnMasks, int offset, int row, int action) {
+		if (i > size) throw new IndexOutOfBoundsException("Sample " + i + " of " + size);
+		if (i == size) {
+			add(new long[words], row, action);
+		} else {
+			rows[i] = (byte) row;
+			actions[i] = (byte) action;
+		}
+		int base = i * words;
+		Arrays.fill(packed, base, base + words, 0L);
+		for (int c = 0; c < columns; c++) {
+			long mask = columnMasks[offset + c] & ((1L << MODEL_HEIGHT) - 1);
+			int bit = c * MODEL_HEIGHT;
+			packed[base + (bit >>> 6)] |= mask << (bit & 63);
+			if ((bit & 63) + MODEL_HEIGHT > Long.SIZE) packed[base + (bit >>> 6) + 1] |= mask >>> (Long.SIZE - (bit & 63)); //Straddles two words
+		}
+	}
+
+	private void add(long[] cellWords, int row, int action) {
+		if (size == actions.length) {
+			int capacity = Math.max(16, size * 2);
+			packed = Arrays.copyOf(packed, capacity * words);
+			rows = Arrays.copyOf(rows, capacity);
+			actions = Arrays.copyOf(actions, capacity);
+		}
+		System.arraycopy(cellWords, 0, packed, size * words, words);
+		rows[size] = (byte) row;
+		actions[size++] = (byte) action;
+	}
+
+	/*
+	 * Streams the CSV a buffer at a time and parses each line in place.
+	 * Lines with fewer than 202 fields, unparseable numbers, cells other
+	 * than 0 or 1, a position that is not a row or a STAY (0) action are
+	 * skipped.
+	 */
+	static TrainingData parseCsv(Path csv, int columns) throws IOException {
+		var data = new TrainingData(columns, 1024);
+		var row = new long[data.words];
+		var commas = new int[CSV_FIELDS];
+		byte[] line = new byte[4096];
+		int length = 0;
+
+		try (InputStream in = Files.newInputStream(csv)) {
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				for (int i = 0; i < read; i++) {
+					byte b = buffer[i];
+					if (b == '\n') {
+						commas = data.parseLine(line, length, row, commas);
+						length = 0;
+					} else {
+						if (length == line.length) line = Arrays.copyOf(line, length * 2);
+						line[length++] = b;
+					}
+				}
+			}
+			if (length > 0) data.parseLine(line, length, row, commas);
+		}
+		return data;
+	}
+
+	private int[] parseLine(byte[] line, int length, long[] row, int[] commas) {
+		if (length > 0 && line[length - 1] == '\r') length--;
+
+		int fields = 1;
+		for (int i = 0; i < length; i++) {
+			if (line[i] == ',') {
+				if (fields > commas.length) commas = Arrays.copyOf(commas, commas.length * 2);
+				commas[fields - 1] = i;
+				fields++;
+			}
+		}
+		if (fields < CSV_FIELDS) {
+			skipped++;
+			return commas;
+		}
+
+		try {
+			Arrays.fill(row, 0L);
+			int start = 0;
+			for (int f = 0; f < cells; f++) { //The first columns of horizon data
+				double cell = parseDouble(line, start, commas[f]);
+				if (cell == 1.0) {
+					row[f >>> 6] |= 1L << f;
+				} else if (cell != 0.0) { //Cannot be bit-packed
+					skipped++;
+					return commas;
+				}
+				start = commas[f] + 1;
+			}
+			double position = parseDouble(line, commas[fields - 3] + 1, commas[fields - 2]); //Player position
+			int playerRow = (int) Math.round(position * MODEL_HEIGHT);
+			int action = parseInt(line, commas[fields - 2] + 1, length);
+			if (action != -1 && action != 1 //Skip STAY actions
+					|| (double) playerRow / MODEL_HEIGHT != position || playerRow != (byte) playerRow) {
+				skipped++;
+				return commas;
+			}
+			add(row, playerRow, action);
+		} catch (NumberFormatException e) {
+			skipped++;
+		}
+		return commas;
+	}
+
+	//Same as Integer.parseInt() for the small values used as actions, without a String
+	static int parseInt(byte[] b, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (b[i] == '-' || b[i] == '+')) {
+			negative = b[i] == '-';
+			i++;
+		}
+		if (i == end || end - i > 9) return Integer.parseInt(new String(b, start, end - start, US_ASCII));
+
+		int value = 0;
+		for (; i < end; i++) {
+			byte c = b[i];
+			if (c < '0' || c > '9') throw new NumberFormatException("Not an integer: " + new String(b, start, end - start, US_ASCII));
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/*
+	 * Parses plain decimals like "1.0" or "0.55" without creating a String.
+	 * While the digits fit in 53 bits and there are at most 22 decimal
+	 * places, one division by an exact power of ten is correctly rounded,
+	 * so the result is the same as Double.parseDouble(). Anything else
+	 * (exponents, whitespace, long mantissas) goes to Double.parseDouble().
+	 */
+	static double parseDouble(byte[] b, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (b[i] == '-' || b[i] == '+')) {
+			negative = b[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int scale = 0;
+		boolean point = false;
+		boolean digits = false;
+		for (; i < end; i++) {
+			byte c = b[i];
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				if (point) scale++;
+				digits = true;
+				if (mantissa > (1L << 53) || scale >= POWERS_OF_TEN.length) return slowParse(b, start, end);
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				return slowParse(b, start, end);
+			}
+		}
+		if (!digits) return slowParse(b, start, end);
+
+		double value = (double) mantissa / POWERS_OF_TEN[scale];
+		return negative ? -value : value;
+	}
+
+	private static double slowParse(byte[] b, int start, int end) {
+		return Double.parseDouble(new String(b, start, end - start, US_ASCII));
+	}
+
+	/*
+	 * Header: magic, version, columns, CSV size, CSV modification time,
+	 * samples, skipped lines. Then the three arrays one after the other:
+	 * the packed cells (samples x words longs), the rows and the actions.
+	 */
+	private void writeCache(Path cache, long csvSize, long csvModified) throws IOException {
+		var tmp = cache.resolveSibling(cache.getFileName() + ".tmp");
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+			out.writeInt(CACHE_MAGIC);
+			out.writeInt(CACHE_VERSION);
+			out.writeInt(columns);
+			out.writeLong(csvSize);
+			out.writeLong(csvModified);
+			out.writeInt(size);
+			out.writeInt(skipped);
+			for (int i = 0; i < size * words; i++) {
+				out.writeLong(packed[i]);
+			}
+			out.write(rows, 0, size);
+			out.write(actions, 0, size);
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	//Returns null if there is no cache or it does not belong to this version of the CSV
+	private static TrainingData readCache(Path cache, int columns, long csvSize, long csvModified) {
+		if (!Files.isRegularFile(cache)) return null;
+
+		try (var channel = FileChannel.open(cache)) {
+			if (channel.size() < HEADER_BYTES) return null;
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != CACHE_MAGIC || buffer.getInt() != CACHE_VERSION) return null;
+			if (buffer.getInt() != columns) return null;
+			if (buffer.getLong() != csvSize || buffer.getLong() != csvModified) return null;
+
+			int count = buffer.getInt();
+			int skipped = buffer.getInt();
+			var data = new TrainingData(columns, count);
+			long recordBytes = data.words * 8L + 1 + 1; //Packed cells, row, action
+			if (channel.size() != HEADER_BYTES + count * recordBytes) return null;
+
+			data.skipped = skipped;
+			buffer.asLongBuffer().get(data.packed, 0, count * data.words);
+			buffer.position(buffer.position() + count * data.words * 8);
+			buffer.get(data.rows, 0, count);
+			buffer.get(data.actions, 0, count);
+			data.size = count;
+			return data;
+		} catch (IOException e) {
+			System.err.println("Ignoring unreadable training data cache: " + e.getMessage());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package ie.atu.sw;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.encog.ml.data.MLData;
+import org.encog.ml.data.MLDataPair;
+import org.encog.ml.data.MLDataSet;
+import org.encog.ml.data.basic.BasicMLDataPair;
+
+/*
+ * A read-only Encog view over a range of samples in a TrainingData. Rows
+ * are copied into the caller's pair only when Encog asks for them, so
+ * any number of views (one per training job, or a training and a
+ * validation split) share the same arrays. Ideal outputs are one-hot,
+ * [1, 0] for UP and [0, 1] for DOWN. With InputEncoding.GAPS the gap
+ * features are worked out from the stored cells as each row is read.
+ */
+class TrainingDataSet implements MLDataSet {
+	private static final int IDEAL_SIZE = 2;
+
+	private final TrainingData data;
+	private final int from;
+	private final int to;
+	private final int columns;
+	private final InputEncoding encoding;
+	private final int inputSize;
+
+	TrainingDataSet(TrainingData data, int from, int to, int columns, InputEncoding encoding) {
+		if (from < 0 || to > data.size() || from > to) {
+			throw new IndexOutOfBoundsException("Samples " + from + " to " + to + " of " + data.size());
+		}
+		this.data = data;
+		this.from = from;
+		this.to = to;
+		this.columns = columns;
+		this.encoding = encoding;
+		this.inputSize = encoding.inputSize(columns);
+	}
+
+	@Override
+	public int getIdealSize() {
+		return IDEAL_SIZE;
+	}
+
+	@Override
+	public int getInputSize() {
+		return inputSize;
+	}
+
+	@Override
+	public boolean isSupervised() {
+		return true;
+	}
+
+	@Override
+	public long getRecordCount() {
+		return to - from;
+	}
+
+	@Override
+	public int size() {
+		return to - from;
+	}
+
+	@Override
+	public void getRecord(long index, MLDataPair pair) {
+		int i = from + (int) index;
+		if (encoding == InputEncoding.GAPS) {
+			data.getGapFeatures(i, columns, pair.getInputArray());
+		} else {
+			data.getInput(i, columns, pair.getInputArray());
+		}
+		var ideal = pair.getIdealArray();
+		boolean up = data.getAction(i) < 0;
+		ideal[0] = up ? 1.0 : 0.0;
+		ideal[1] = up ? 0.0 : 1.0;
+	}
+
+	@Override
+	public MLDataPair get(int index) {
+		var pair = BasicMLDataPair.createPair(inputSize, IDEAL_SIZE);
+		getRecord(index, pair);
+		return pair;
+	}
+
+	//The view holds no state of its own, so every thread can share it
+	@Override
+	public MLDataSet openAdditional() {
+		return this;
+	}
+
+	/*
+	 * Encog only iterates to compute errors, one pair at a time, so the
+	 * iterator unpacks every row into the same pair rather than allocating
+	 * one per row. Copy a pair before keeping it.
+	 */
+	@Override
+	public Iterator<MLDataPair> iterator() {
+		return new Iterator<>() {
+			private final MLDataPair pair = BasicMLDataPair.createPair(inputSize, IDEAL_SIZE);
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < size();
+			}
+
+			@Override
+			public MLDataPair next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				getRecord(index++, pair);
+				return pair;
+			}
+		};
+	}
+
+	@Override
+	public void add(MLData data) {
+		throw new UnsupportedOperationException("Training data views are read only");
+	}
+
+	@Override
+	public void add(MLData input, MLData ideal) {
+		throw new UnsupportedOperationException("Training data views are read only");
+	}
+
+	@Override
+	public void add(MLDataPair pair) {
+		throw new UnsupportedOperationException("Training data views are read only");
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,196 @@
+package ie.atu.sw;
+
+import static ie.atu.sw.Simulation.HORIZON_SIZE;
+import static ie.atu.sw.Simulation.MODEL_HEIGHT;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Records training samples without touching the disk on the game thread.
+ * record() copies the horizon, player row and action into a preallocated
+ * slot of a bounded single-producer/single-consumer ring and returns. A
+ * background thread drains the ring in batches, formats the rows in the
+ * same 202-field CSV layout that TrainingData reads and flushes once per
+ * batch. When the ring is full the sample is dropped and counted rather
+ * than blocking the game.
+ *
+ * Only one thread may call record() and close().
+ */
+public class TrainingRecorder implements AutoCloseable {
+	private static final int DEFAULT_CAPACITY 	= 1024;
+	private static final int BATCH_SIZE 		= 256;
+	private static final long IDLE_NANOS 		= 10_000_000L; //How long the writer sleeps when there is nothing to do
+	private static final LongAdder DROPPED 		= Metrics.counter("recorder.dropped");
+	private static final AtomicReference<TrainingRecorder> ACTIVE = new AtomicReference<>(); //The one recorder.depth reports, null once it is closed
+
+	static {
+		Metrics.gauge("recorder.depth", () -> {
+			var recorder = ACTIVE.get();
+			return recorder == null ? 0 : recorder.getQueueDepth();
+		});
+	}
+
+	private final int capacity;
+	private final int mask;
+	private final byte[] cells; //HORIZON_SIZE cells per slot
+	private final int[] rows;
+	private final byte[] actions;
+
+	private final AtomicLong head = new AtomicLong(); //Next slot the writer will read
+	private final AtomicLong tail = new AtomicLong(); //Next slot record() will fill
+
+	private final LongAdder recorded = new LongAdder();
+	private final LongAdder dropped = new LongAdder();		//Samples lost because the ring was full
+	private final LongAdder backpressure = new LongAdder();	//Samples recorded with the ring at least 3/4 full
+	private final LongAdder batches = new LongAdder();
+	private volatile int maxDepth;
+
+	private final Writer out;
+	private final Thread writer;
+	private volatile boolean closed;
+	private volatile boolean failed;
+
+	public TrainingRecorder(String file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	//Capacity is rounded up to a power of two
+	public TrainingRecorder(String file, int capacity) throws IOException {
+		this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.mask = this.capacity - 1;
+		this.cells = new byte[this.capacity * HORIZON_SIZE];
+		this.rows = new int[this.capacity];
+		this.actions = new byte[this.capacity];
+
+		this.out = new BufferedWriter(new FileWriter(file, true), 1 << 16);
+		this.writer = new Thread(this::drain, "training-recorder");
+		this.writer.setDaemon(true);
+		this.writer.start();
+		ACTIVE.set(this); //The newest recorder is the one reported
+	}
+
+	/*
+	 * Queues the current horizon, player row and action. Returns false if
+	 * the sample was dropped because the ring is full or the recorder has
+	 * been closed.
+	 */
+	public boolean record(Simulation sim, int action) {
+		if (closed || failed) return false;
+
+		long t = tail.get();
+		long depth = t - head.get();
+		if (depth >= capacity) {
+			dropped.increment();
+			DROPPED.increment();
+			return false;
+		}
+		if (depth >= capacity - (capacity >> 2)) backpressure.increment();
+		if (depth + 1 > maxDepth) maxDepth = (int) depth + 1;
+
+		int slot = (int) (t & mask);
+		sim.copyHorizon(cells, slot * HORIZON_SIZE);
+		rows[slot] = sim.getPlayerRow();
+		actions[slot] = (byte) action;
+		tail.lazySet(t + 1); //Publish the slot to the writer
+
+		recorded.increment();
+		return true;
+	}
+
+	//The writer thread: format and write whatever is queued, a batch at a time
+	private void drain() {
+		var row = new StringBuilder(HORIZON_SIZE * 4 + 16);
+		try {
+			while (true) {
+				long h = head.get();
+				long t = tail.get();
+				if (h == t) {
+					if (closed) break;
+					LockSupport.parkNanos(this, IDLE_NANOS);
+					continue;
+				}
+
+				long end = Math.min(t, h + BATCH_SIZE);
+				for (long s = h; s < end; s++) {
+					int slot = (int) (s & mask);
+					row.setLength(0);
+					appendRow(row, cells, slot * HORIZON_SIZE, rows[slot], actions[slot]);
+					out.append(row);
+				}
+				head.lazySet(end); //Hand the slots back to record()
+				out.flush();
+				batches.increment();
+			}
+		} catch (IOException e) {
+			failed = true;
+			System.err.println("Training data recorder failed: " + e.getMessage());
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				System.err.println("Failed to close training data: " + e.getMessage());
+			}
+		}
+	}
+
+	//Appends one sample as a CSV row: HORIZON_SIZE cells from offset, the player position and the action
+	static void appendRow(StringBuilder row, byte[] cells, int offset, int playerRow, int action) {
+		for (int i = 0; i < HORIZON_SIZE; i++) {
+			row.append(cells[offset + i] != 0 ? "1.0," : "0.0,");
+		}
+		row.append((double) playerRow / MODEL_HEIGHT); // Player position
+		row.append(',').append(action); // Action taken (only -1 or 1)
+		row.append(System.lineSeparator());
+	}
+
+	//Stops accepting samples, writes out everything still queued and closes the file
+	public void close() {
+		if (closed) return;
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		ACTIVE.compareAndSet(this, null); //Unless a newer one has taken over, and so the gauge does not keep this one alive
+	}
+
+	public long getRecorded() {
+		return recorded.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public long getBackpressure() {
+		return backpressure.sum();
+	}
+
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	//Samples waiting to be written
+	public int getQueueDepth() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public int getMaxQueueDepth() {
+		return maxDepth;
+	}
+
+	@Override
+	public String toString() {
+		return "Recorded " + getRecorded() + " samples in " + getBatches() + " batches, dropped " + getDropped()
+				+ ", backpressure " + getBackpressure() + ", max queue depth " + getMaxQueueDepth() + "/" + capacity;
+	}
+}